@@ -2,10 +2,28 @@ package simpledb;
 
 import javax.sql.DataSource;
 import java.io.*;
+import java.lang.reflect.Constructor;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -29,17 +47,179 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private Integer numPages;
-    private Map<PageId,Page> pageCache;
+    /** Default number of pages sequential scans read ahead of their position. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 8;
+
+    /** First int of the files written by saveSnapshot */
+    private static final int SNAPSHOT_MAGIC = 0x53445750;
+
+    /** Number of background threads issuing read-ahead I/O. */
+    private static final int IO_THREADS = 2;
+
+    /** Maximum number of pages; changed only with policyLock held */
+    private volatile int numPages;
+    /** Cached pages; read without locking, changed only with policyLock held */
+    private final Map<PageId,Frame> pageCache;
+    /** Locks of the transactions using this pool */
+    private final LockManager lockManager = new LockManager();
+    /** Whether heap file updates lock the tuples they change rather than whole pages */
+    private volatile boolean rowLocking = false;
+    /** Changes made by the transactions updating heap files in row-locking mode */
+    private final ConcurrentHashMap<TransactionId, RowChanges> rowChanges = new ConcurrentHashMap<>();
+    /**
+     * The pages each running transaction may have dirtied: those it locked
+     * for writing and those it cached as dirty. Completing a transaction
+     * only looks at these instead of the whole pool.
+     */
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> writtenPages = new ConcurrentHashMap<>();
+    /** Chooses the pages to evict; protected by policyLock */
+    private final EvictionPolicy evictionPolicy;
+    private final ReentrantLock policyLock = new ReentrantLock();
+
+    /** Direct memory the cached pages are read into, or null to keep them on the heap */
+    private final FrameArena arena;
+    /** Arena frames that hold no page and are not being read into; protected by policyLock */
+    private final Deque<Integer> freeFrames = new ArrayDeque<>();
+    /** Arena frames that hold a page or are being read into; protected by policyLock */
+    private final BitSet usedFrames = new BitSet();
+    /** Frames of discarded pages that were still pinned; freed when they are unpinned */
+    private final Set<Frame> retiredFrames = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Reads of pages that are not cached yet: those issued by prefetchPage
+     * that getPage has not picked up, and those of getPage calls, which
+     * other threads missing on the same page wait for instead of reading
+     * the page again.
+     */
+    private final ConcurrentHashMap<PageId, PageLoad> pendingReads = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor ioExecutor; // created lazily, protected by this
+    private volatile int readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+
+    /** Writes dirty pages in the background once there are too many; protected by this */
+    private ScheduledExecutorService pageCleaner;
+    private volatile double dirtyWatermark;
+    /** Where checkpoints save the ids of the cached pages, or null */
+    private volatile File snapshotFile;
+
+    private final BufferPoolMetrics metrics = new BufferPoolMetrics();
+    private final AtomicLong prefetchHits = new AtomicLong();
+    private final AtomicLong prefetchWaits = new AtomicLong();
+    private final AtomicLong prefetchMisses = new AtomicLong();
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * with the CLOCK algorithm.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new ClockPolicy());
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * as chosen by the specified policy, e.g. a {@link TwoQueuePolicy} for
+     * pools shared by large scans and point lookups.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param evictionPolicy a policy that is not used by any other pool
+     */
+    public BufferPool(int numPages, EvictionPolicy evictionPolicy) {
+        this(numPages, evictionPolicy, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, optionally
+     * keeping them off the Java heap. With offHeap set, numPages page-sized
+     * frames are allocated up front in direct memory, and pages of files
+     * that support it (see {@link DbFile#readPage(PageId, java.nio.ByteBuffer)})
+     * are read into a frame and are views of it, so the size of the pool
+     * does not add to garbage collection pauses.
+     * <p>
+     * The frame of an evicted page is reused for another page, so code that
+     * keeps using a page while it requests other pages must pin it with
+     * {@link #pinPage} or mark it dirty first.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param evictionPolicy a policy that is not used by any other pool
+     * @param offHeap whether to keep the cached page images in direct memory
+     */
+    public BufferPool(int numPages, EvictionPolicy evictionPolicy, boolean offHeap) {
         // some code goes here
         this.numPages = numPages;
-        this.pageCache = new HashMap<>();
+        this.pageCache = new ConcurrentHashMap<>();
+        this.evictionPolicy = evictionPolicy;
+        evictionPolicy.setCapacity(numPages);
+        this.arena = offHeap ? new FrameArena(numPages, pageSize) : null;
+        for (int i = 0; offHeap && i < numPages; i++) {
+            freeFrames.add(i);
+        }
+    }
+
+    /** @return the maximum number of pages in this buffer pool */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Changes the maximum number of pages in this buffer pool while it is in
+     * use, keeping the cached pages that still fit. Growing the pool adds
+     * room, and in an off-heap pool the frames, for more pages. Shrinking it
+     * evicts pages, as chosen by the eviction policy, until the pool fits
+     * the new size; in an off-heap pool, the pages in frames beyond the new
+     * size are evicted instead, and the memory of those frames is freed.
+     * Pages that are dirty or pinned cannot be evicted right away; until
+     * they are, the pool holds more pages than its new size and requests
+     * for pages that are not cached evict as usual.
+     *
+     * @param numPages the new maximum number of pages, at least 1
+     */
+    public void resize(int numPages) {
+        if (numPages <= 0) {
+            throw new IllegalArgumentException("a buffer pool needs at least one page");
+        }
+        policyLock.lock();
+        try {
+            int oldPages = this.numPages;
+            this.numPages = numPages;
+            evictionPolicy.setCapacity(numPages);
+            if (arena == null) {
+                try {
+                    while (pageCache.size() > numPages) {
+                        evictPage();
+                    }
+                } catch (DbException e) {
+                    // the rest is dirty or pinned
+                }
+            } else if (numPages > oldPages) {
+                arena.resize(numPages);
+                for (int f = oldPages; f < numPages; f++) {
+                    if (!usedFrames.get(f)) {
+                        freeFrames.add(f);
+                    }
+                }
+            } else {
+                freeFrames.removeIf(f -> f >= numPages);
+                for (Frame frame : new ArrayList<>(pageCache.values())) {
+                    if (frame.frameNo >= numPages && frame.page.isDirty() == null && frame.reclaim()) {
+                        PageId pid = frame.page.getId();
+                        pageCache.remove(pid);
+                        evictionPolicy.pageRemoved(pid);
+                        metrics.recordEviction();
+                        releaseFrame(frame.frameNo);
+                    }
+                }
+                if (usedFrames.nextSetBit(numPages) < 0) {
+                    arena.resize(numPages);
+                }
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /** @return true if cached pages are kept in direct memory */
+    public boolean isOffHeap() {
+        return arena != null;
     }
     
     public static int getPageSize() {
@@ -71,18 +251,796 @@ public class BufferPool {
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
-    public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, false);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, as
+     * {@link #getPage(TransactionId, PageId, Permissions)} does, telling the
+     * eviction policy whether the request is part of a sequential scan.
+     * Scan-resistant policies keep pages that are only read by scans from
+     * displacing pages that are requested individually.
+     *
+     * @param sequential true if the page is requested by a sequential scan
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, boolean sequential)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        if(this.pageCache.size()==this.numPages){
-            throw  new TransactionAbortedException();
+        acquireLock(tid, pid, perm);
+        return fetchPage(pid, sequential, false);
+    }
+
+    /**
+     * Retrieve the specified page as {@link #getPage(TransactionId, PageId,
+     * Permissions, boolean)} does and pin it: until it is unpinned, the page
+     * is not evicted and, in an off-heap pool, its frame is not reused.
+     * Every call must be matched by a call to {@link #unpinPage}.
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm, boolean sequential)
+        throws TransactionAbortedException, DbException {
+        acquireLock(tid, pid, perm);
+        return fetchPage(pid, sequential, true);
+    }
+
+    /**
+     * Locks a page on behalf of tid as {@link #getPage} does, without
+     * retrieving it: for pages that tid writes without going through the
+     * pool, such as those a bulk insert appends to a file.
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        acquireLock(tid, pid, perm);
+    }
+
+    /**
+     * Acquires the lock that perm calls for on behalf of tid, blocking
+     * until it is granted: a shared lock for READ_ONLY and an exclusive one
+     * for READ_WRITE. Locks are held until the transaction completes.
+     * In row-locking mode, heap file pages that are read only get an
+     * intention-shared lock, as their readers lock the tuples they read.
+     */
+    private void acquireLock(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        if (tid != null) {
+            boolean write = perm == Permissions.READ_WRITE;
+            if (write) {
+                noteWrite(tid, pid);
+            }
+            if (rowLocking) {
+                lockManager.acquire(tid, LockManager.table(pid.getTableId()),
+                        write ? LockManager.Mode.IX : LockManager.Mode.IS);
+                if (!write && pid instanceof HeapPageId) {
+                    lockManager.acquire(tid, pid, LockManager.Mode.IS);
+                    return;
+                }
+            }
+            lockManager.acquire(tid, pid, write);
+        }
+    }
+
+    /** Records that tid may dirty the specified page. */
+    private void noteWrite(TransactionId tid, PageId pid) {
+        writtenPages.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(pid);
+    }
+
+    /** @return the cached pages that tid dirtied and that have not been written since */
+    private List<Page> pagesDirtiedBy(TransactionId tid) {
+        List<Page> dirty = new ArrayList<>();
+        Set<PageId> written = writtenPages.get(tid);
+        if (written != null) {
+            for (PageId pid : written) {
+                Frame frame = pageCache.get(pid);
+                if (frame != null && tid.equals(frame.page.isDirty())) {
+                    dirty.add(frame.page);
+                }
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Switches heap file updates between page locking, where a transaction
+     * that changes a page locks it exclusively, and row locking, where it
+     * only takes intention locks on the page and its table and locks the
+     * tuples it inserts or deletes exclusively, so that transactions
+     * changing different tuples of the same page do not wait for each other.
+     * Scans of heap files likewise take intention-shared locks on the pages
+     * and lock each tuple they return shared, so that they only wait for
+     * the writers of those tuples.
+     * <p>
+     * In row-locking mode deletes only take effect when their transaction
+     * commits, and inserts are undone one by one when it aborts, as the
+     * pages they are on may hold the changes of other transactions. For
+     * the same reason, heap file pages are not logged with their images:
+     * each insert, delete and undo is logged with the record id of its
+     * tuple instead (see {@link LogFile}), and the pages a transaction
+     * changed are written when it completes.
+     * <p>
+     * Can only be changed while the log holds no running transaction.
+     * Switching takes a checkpoint, so that recovery never applies page
+     * images and row changes logged in different modes to the same page.
+     *
+     * @throws IllegalStateException if the log holds running transactions
+     */
+    public void setRowLocking(boolean rowLocking) throws IOException {
+        if (rowLocking == this.rowLocking) {
+            return;
+        }
+        LogFile log = Database.getLogFile();
+        if (log.hasLoggedTransactions()) {
+            throw new IllegalStateException("cannot switch row locking while the log holds running transactions");
+        }
+        log.logCheckpoint();
+        this.rowLocking = rowLocking;
+    }
+
+    /** @return true if heap file updates lock tuples rather than pages */
+    public boolean isRowLocking() {
+        return rowLocking;
+    }
+
+    /**
+     * Locks a tuple on behalf of tid, blocking until the lock is granted:
+     * a shared lock for READ_ONLY and an exclusive one for READ_WRITE, after
+     * the matching intention locks on its table and page.
+     */
+    public void lockTuple(TransactionId tid, RecordId rid, Permissions perm)
+        throws TransactionAbortedException {
+        boolean write = perm == Permissions.READ_WRITE;
+        LockManager.Mode intention = write ? LockManager.Mode.IX : LockManager.Mode.IS;
+        PageId pid = rid.getPageId();
+        lockManager.acquire(tid, LockManager.table(pid.getTableId()), intention);
+        lockManager.acquire(tid, pid, intention);
+        lockManager.acquire(tid, rid, write ? LockManager.Mode.EXCLUSIVE : LockManager.Mode.SHARED);
+    }
+
+    /**
+     * Locks a whole table on behalf of tid, blocking until the lock is
+     * granted: a shared lock for READ_ONLY and an exclusive one for
+     * READ_WRITE. Only keeps out the transactions that lock the table's
+     * pages and tuples in row-locking mode, which take intention locks on
+     * the table first.
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+        throws TransactionAbortedException {
+        lockManager.acquire(tid, LockManager.table(tableId), perm == Permissions.READ_WRITE
+                ? LockManager.Mode.EXCLUSIVE : LockManager.Mode.SHARED);
+    }
+
+    /**
+     * Retrieves and pins a page that tid is going to change tuples of in
+     * row-locking mode, taking intention-exclusive locks on the page and its
+     * table. The tuples must be locked separately, and the page's contents
+     * only changed while synchronized on it, since other transactions may
+     * be changing it too.
+     */
+    Page pinPageForRowUpdate(TransactionId tid, PageId pid)
+        throws TransactionAbortedException, DbException {
+        lockManager.acquire(tid, LockManager.table(pid.getTableId()), LockManager.Mode.IX);
+        lockManager.acquire(tid, pid, LockManager.Mode.IX);
+        return fetchPage(pid, false, true);
+    }
+
+    /**
+     * Drops the lock tid took on a page with {@link #pinPageForRowUpdate}
+     * without changing it.
+     */
+    void releaseRowPage(TransactionId tid, PageId pid) {
+        lockManager.release(tid, pid);
+    }
+
+    /** The tuples a transaction inserted and deleted in row-locking mode. */
+    private static class RowChanges {
+        /** Inserted tuples, in the order they were inserted */
+        final List<Tuple> inserted = new ArrayList<>();
+        /** Tuples to delete when the transaction commits */
+        final Map<RecordId, Tuple> deleted = new LinkedHashMap<>();
+        /** Pages changed by the inserts and deletes */
+        final Set<PageId> pages = new HashSet<>();
+    }
+
+    private RowChanges rowChanges(TransactionId tid) {
+        return rowChanges.computeIfAbsent(tid, t -> new RowChanges());
+    }
+
+    /**
+     * Records that tid inserted t in row-locking mode, to undo it on abort,
+     * and logs the insert. Must be called under the monitor of the page,
+     * right after the insert, so that the page is not written without it.
+     */
+    void rowInserted(TransactionId tid, Tuple t) throws IOException {
+        RowChanges changes = rowChanges(tid);
+        changes.inserted.add(t);
+        changes.pages.add(t.getRecordId().getPageId());
+        Database.getLogFile().logRowInsert(tid, t.getRecordId());
+    }
+
+    /**
+     * Records that tid deleted t in row-locking mode; t stays on its page
+     * until tid commits.
+     *
+     * @return false if tid has already deleted t
+     */
+    boolean deferDelete(TransactionId tid, Tuple t) {
+        RowChanges changes = rowChanges(tid);
+        if (changes.deleted.putIfAbsent(t.getRecordId(), t) != null) {
+            return false;
+        }
+        changes.pages.add(t.getRecordId().getPageId());
+        return true;
+    }
+
+    /** @return true if tid has deleted the tuple in row-locking mode and not committed yet */
+    boolean isDeletePending(TransactionId tid, RecordId rid) {
+        RowChanges changes = rowChanges.get(tid);
+        return changes != null && changes.deleted.containsKey(rid);
+    }
+
+    /**
+     * Releases a pin taken by {@link #pinPage}.
+     *
+     * @throws IllegalStateException if the page is not pinned
+     */
+    public void unpinPage(PageId pid) {
+        Frame frame = pageCache.get(pid);
+        if (frame == null || frame.pins.get() <= 0) {
+            frame = null;
+            for (Frame retired : retiredFrames) {
+                if (retired.page.getId().equals(pid) && retired.pins.get() > 0) {
+                    frame = retired;
+                    break;
+                }
+            }
+            if (frame == null) {
+                throw new IllegalStateException("page " + pid + " is not pinned");
+            }
+        }
+        if (frame.unpin() == 0 && retiredFrames.contains(frame)
+                && frame.reclaim() && retiredFrames.remove(frame)) {
+            releaseFrame(frame.frameNo);
+        }
+    }
+
+    /**
+     * Returns the cached version of a page, reading it if it is not cached.
+     * Threads that miss on the same page at the same time share one read,
+     * and a read-ahead of the page that is still pending is claimed instead
+     * of reading the page again.
+     */
+    private Page fetchPage(PageId pid, boolean sequential, boolean pin) throws DbException {
+        while (true) {
+            try {
+                return fetchOrReadPage(pid, sequential, pin);
+            } catch (PoolFullException e) {
+                // every page that could be evicted is dirty: write one out (STEAL) and try again
+                if (policyLock.isHeldByCurrentThread() || stealPage() == 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a dirty page to disk, logging it first, so that it can be
+     * evicted.
+     *
+     * @return the number of pages written, 0 if no page can be written
+     */
+    private int stealPage() throws DbException {
+        try {
+            return cleanPages(1);
+        } catch (IOException e) {
+            throw new DbException("cannot write a page to make room: " + e.getMessage());
+        }
+    }
+
+    /** Does the work of {@link #fetchPage}. */
+    private Page fetchOrReadPage(PageId pid, boolean sequential, boolean pin) throws DbException {
+        boolean missed = false;
+        while (true) {
+            Page cached = cachedPage(pid, sequential, pin);
+            if (cached != null) {
+                if (!missed) {
+                    metrics.recordHit(pid.getTableId());
+                }
+                return cached;
+            }
+            PageLoad load = pendingReads.get(pid);
+            boolean owner = false;
+            if (load == null) {
+                PageLoad mine = new PageLoad(pid, false);
+                load = pendingReads.putIfAbsent(pid, mine);
+                if (load == null) {
+                    // the page may have been cached, and its load finished, since our lookup
+                    cached = cachedPage(pid, sequential, pin);
+                    if (cached != null) {
+                        pendingReads.remove(pid, mine);
+                        if (!missed) {
+                            metrics.recordHit(pid.getTableId());
+                        }
+                        return cached;
+                    }
+                    load = mine;
+                    owner = true;
+                    mine.run();
+                }
+            }
+            if (!missed) {
+                missed = true;
+                metrics.recordMiss(pid.getTableId());
+                if (!owner && !load.prefetch && !load.isDone()) {
+                    metrics.recordPinWait();
+                }
+            }
+            if (!load.prefetch) {
+                prefetchMisses.incrementAndGet();
+            } else if (load.isDone()) {
+                prefetchHits.incrementAndGet();
+            } else {
+                prefetchWaits.incrementAndGet();
+            }
+
+            Page page;
+            try {
+                page = load.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while reading page " + pid);
+            } catch (CancellationException e) {
+                pendingReads.remove(pid, load);
+                continue;
+            } catch (ExecutionException e) {
+                pendingReads.remove(pid, load);
+                if (!owner) {
+                    // a failed read-ahead, or another thread's read: try it ourselves
+                    continue;
+                }
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                if (cause instanceof DbException) {
+                    throw (DbException) cause;
+                }
+                throw new DbException("cannot read page " + pid + ": " + cause);
+            }
+            if (!load.claim()) {
+                // another thread is caching the page
+                load.awaitCached();
+                continue;
+            }
+            try {
+                return cachePage(page, sequential, false, pin, load.frameNo());
+            } finally {
+                // only now, so that a thread that missed on the page finds it in one of the two maps
+                pendingReads.remove(pid, load);
+                load.cached();
+            }
+        }
+    }
+
+    /**
+     * Looks up the cached version of a page, pinning it if requested.
+     *
+     * @return the page, or null if it is not cached or is being evicted
+     */
+    private Page cachedPage(PageId pid, boolean sequential, boolean pin) {
+        Frame frame = pageCache.get(pid);
+        if (frame == null || !(pin ? frame.pin() : frame.pins.get() >= 0)) {
+            return null;
+        }
+        pageAccessed(pid, sequential);
+        return frame.page;
+    }
+
+    /**
+     * Tells the eviction policy about a cache hit. Hits do not wait for the
+     * policy lock: if another thread holds it, the access is not recorded,
+     * which only makes the eviction order slightly less precise.
+     */
+    private void pageAccessed(PageId pid, boolean sequential) {
+        if (policyLock.tryLock()) {
+            try {
+                if (pageCache.containsKey(pid)) {
+                    evictionPolicy.pageAccessed(pid, sequential);
+                }
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Caches page under its page id. A page that is not cached yet takes
+     * over the arena frame it was read into, if any, and otherwise needs
+     * room in the pool, for which another page may be evicted.
+     *
+     * @param replace whether page replaces a version that is already cached
+     * @param pin whether to pin the cached page
+     * @param frameNo the arena frame page is a view of, or -1
+     * @return the cached version of the page
+     */
+    private Page cachePage(Page page, boolean sequential, boolean replace, boolean pin, int frameNo)
+        throws DbException {
+        PageId pid = page.getId();
+        policyLock.lock();
+        try {
+            Frame frame = pageCache.get(pid);
+            if (frame != null) {
+                // cached by someone else while page was being read
+                releaseFrame(frameNo);
+                evictionPolicy.pageAccessed(pid, sequential);
+                if (replace) {
+                    frame.page = page;
+                }
+            } else {
+                if (arena == null) {
+                    while (pageCache.size() >= numPages) {
+                        evictPage();
+                    }
+                } else if (frameNo < 0) {
+                    frameNo = reserveFrame();
+                }
+                frame = new Frame(page, frameNo);
+                pageCache.put(pid, frame);
+                evictionPolicy.pageAdded(pid, sequential);
+            }
+            if (pin) {
+                // cannot fail: pages are only claimed for eviction with policyLock held
+                frame.pin();
+            }
+            return frame.page;
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Takes a free arena frame, evicting a page if there is none.
+     */
+    private int reserveFrame() throws DbException {
+        policyLock.lock();
+        try {
+            while (freeFrames.isEmpty()) {
+                evictPage();
+            }
+            int frameNo = freeFrames.pop();
+            usedFrames.set(frameNo);
+            return frameNo;
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /** Puts an arena frame back on the free list; does nothing for -1. */
+    private void releaseFrame(int frameNo) {
+        if (frameNo < 0) {
+            return;
+        }
+        policyLock.lock();
+        try {
+            usedFrames.clear(frameNo);
+            if (frameNo < numPages) {
+                freeFrames.push(frameNo);
+            } else if (usedFrames.nextSetBit(numPages) < 0) {
+                // the last frame left over from shrinking the pool
+                arena.resize(numPages);
+            }
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    /**
+     * Starts reading the specified page from disk in the background, so that
+     * a later {@link #getPage} call for it does not have to wait for the
+     * disk. Does nothing if the page is cached or already being read, or if
+     * as many reads as the pool has pages are already outstanding.
+     * No locks are acquired; they are taken when the page is requested.
+     *
+     * @param pid the ID of the page to read ahead
+     */
+    public void prefetchPage(PageId pid) {
+        // reads into an arena hold a frame each, so leave half of them to cached pages
+        int maxReads = arena == null ? numPages : numPages / 2;
+        if (pageCache.containsKey(pid) || pendingReads.containsKey(pid)
+                || pendingReads.size() >= maxReads) {
+            return;
+        }
+        PageLoad read = new PageLoad(pid, true);
+        if (pendingReads.putIfAbsent(pid, read) == null) {
+            ioExecutor().execute(read);
+        }
+    }
+
+    /**
+     * Abandons a read started by {@link #prefetchPage} that is no longer
+     * needed, e.g. because the scan that issued it was closed. Reads that a
+     * getPage call is waiting for are not affected.
+     */
+    public void cancelPrefetch(PageId pid) {
+        PageLoad read = pendingReads.get(pid);
+        if (read != null && read.prefetch && pendingReads.remove(pid, read)) {
+            read.abandon();
+        }
+    }
+
+    /**
+     * A cached page, the arena frame it occupies and the number of pins on
+     * it. A frame that is being evicted or was discarded has a pin count of
+     * -1 and cannot be pinned again.
+     */
+    private static final class Frame {
+        /** the cached version of the page, replaced when a modified copy is cached */
+        volatile Page page;
+        /** the arena frame the page occupies, or -1 */
+        final int frameNo;
+        final AtomicInteger pins = new AtomicInteger();
+
+        Frame(Page page, int frameNo) {
+            this.page = page;
+            this.frameNo = frameNo;
+        }
+
+        /** Adds a pin unless the frame has been claimed for eviction. */
+        boolean pin() {
+            while (true) {
+                int n = pins.get();
+                if (n < 0) {
+                    return false;
+                }
+                if (pins.compareAndSet(n, n + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /** @return the number of pins left */
+        int unpin() {
+            while (true) {
+                int n = pins.get();
+                if (n <= 0) {
+                    throw new IllegalStateException("page " + page.getId() + " is not pinned");
+                }
+                if (pins.compareAndSet(n, n - 1)) {
+                    return n - 1;
+                }
+            }
+        }
+
+        /** Claims the frame for eviction if it is not pinned. */
+        boolean reclaim() {
+            return pins.compareAndSet(0, -1);
+        }
+    }
+
+    /**
+     * A read of a page from disk, which all threads that need the page
+     * share. The first thread to claim the result caches it; the others
+     * wait for that and then find the page in the cache. In an off-heap
+     * pool the read reserves an arena frame, which is handed over to the
+     * cache or freed if the read fails or is abandoned.
+     */
+    private final class PageLoad implements Runnable {
+        final PageId pid;
+        /** true if the read was started by prefetchPage */
+        final boolean prefetch;
+        private final FutureTask<Page> task = new FutureTask<Page>(this::read);
+        private final CountDownLatch cachedLatch = new CountDownLatch(1);
+        // guarded by this
+        private int frameNo = -1;
+        private boolean finished;
+        private boolean claimed;
+
+        PageLoad(PageId pid, boolean prefetch) {
+            this.pid = pid;
+            this.prefetch = prefetch;
+        }
+
+        public void run() {
+            task.run();
+        }
+
+        boolean isDone() {
+            return task.isDone();
+        }
+
+        Page get() throws InterruptedException, ExecutionException {
+            return task.get();
+        }
+
+        private Page read() throws Exception {
+            synchronized (this) {
+                if (claimed) {
+                    throw new CancellationException();
+                }
+            }
+            int frame = arena == null ? -1 : reserveFrame();
+            Page page;
+            try {
+                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                long start = System.nanoTime();
+                page = frame < 0 ? file.readPage(pid) : file.readPage(pid, arena.frame(frame));
+                metrics.recordRead(System.nanoTime() - start);
+            } catch (Exception | Error e) {
+                releaseFrame(frame);
+                throw e;
+            }
+            synchronized (this) {
+                finished = true;
+                if (!claimed) {
+                    frameNo = frame;
+                    return page;
+                }
+            }
+            // abandoned while reading
+            releaseFrame(frame);
+            throw new CancellationException();
+        }
+
+        /**
+         * Claims the page that was read for caching it.
+         *
+         * @return false if another thread has claimed it or it was abandoned
+         */
+        synchronized boolean claim() {
+            if (claimed) {
+                return false;
+            }
+            claimed = true;
+            return true;
+        }
+
+        /** @return the arena frame the page was read into, or -1 */
+        synchronized int frameNo() {
+            return frameNo;
+        }
+
+        /** Signals that the claiming thread has cached the page, or failed to. */
+        void cached() {
+            cachedLatch.countDown();
+        }
+
+        /** Waits until the thread that claimed the page has cached it. */
+        void awaitCached() throws DbException {
+            try {
+                cachedLatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while reading page " + pid);
+            }
+        }
+
+        /** Gives up the read if no thread has claimed the page, freeing its frame. */
+        void abandon() {
+            int frame;
+            synchronized (this) {
+                if (claimed) {
+                    return;
+                }
+                claimed = true;
+                frame = finished ? frameNo : -1;
+            }
+            task.cancel(false);
+            releaseFrame(frame);
+            cachedLatch.countDown();
+        }
+    }
+
+    private synchronized Executor ioExecutor() {
+        if (ioExecutor == null) {
+            ioExecutor = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 5, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), r -> {
+                        Thread t = new Thread(r, "BufferPool-io");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            ioExecutor.allowCoreThreadTimeOut(true);
+        }
+        return ioExecutor;
+    }
+
+    /** @return how many pages sequential scans read ahead of their position */
+    public int getReadAheadPages() {
+        return readAheadPages;
+    }
+
+    /**
+     * Sets how many pages sequential scans read ahead of their position;
+     * 0 disables read-ahead.
+     */
+    public void setReadAheadPages(int readAheadPages) {
+        this.readAheadPages = Math.max(0, readAheadPages);
+    }
+
+    /** @return the number of pages in the pool */
+    public int getCachedPageCount() {
+        return pageCache.size();
+    }
+
+    /** @return the number of dirty pages in the pool */
+    public int getDirtyPageCount() {
+        int dirty = 0;
+        for (Frame frame : pageCache.values()) {
+            if (frame.page.isDirty() != null) {
+                dirty++;
+            }
         }
-        if(!pageCache.containsKey(pid)){
-            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = dbFile.readPage(pid);
-            pageCache.put(pid,page);
+        return dirty;
+    }
+
+    /** @return the number of pinned pages in the pool */
+    public int getPinnedPageCount() {
+        int pinned = 0;
+        for (Frame frame : pageCache.values()) {
+            if (frame.pins.get() > 0) {
+                pinned++;
+            }
         }
-        return pageCache.get(pid);
+        return pinned;
+    }
+
+    /**
+     * Prints the state of the pool and its counters, overall and for each
+     * table whose pages have been requested, in human-readable form.
+     */
+    public void printStats(PrintStream out) {
+        BufferPoolMetrics m = metrics;
+        int dirty = getDirtyPageCount();
+        out.printf("pages:    %d of %d cached, %d dirty (%.1f%%), %d pinned; %s%s%n",
+                getCachedPageCount(), numPages, dirty, 100.0 * dirty / numPages, getPinnedPageCount(),
+                evictionPolicy.getClass().getSimpleName(), arena == null ? "" : ", off-heap");
+        out.printf("requests: %d hits, %d misses (%.1f%% hits), %d pin waits, %d evictions%n",
+                m.getHits(), m.getMisses(), 100 * m.getHitRatio(), m.getPinWaits(), m.getEvictions());
+        out.printf("prefetch: %d hits, %d waits, %d misses, %d pages ahead%n",
+                getPrefetchHits(), getPrefetchWaits(), getPrefetchMisses(), getReadAheadPages());
+        out.printf("reads:    %s%n", m.getReadLatency());
+        out.printf("writes:   %d pages, %s%n", m.getPagesWritten(), m.getWriteLatency());
+        for (int tableId : m.getTableIds()) {
+            String name = Database.getCatalog().getTableName(tableId);
+            DbFile file = name == null ? null : Database.getCatalog().getDatabaseFile(tableId);
+            if (name == null) {
+                // dropped from the catalog since
+                name = Integer.toString(tableId);
+            }
+            long hits = m.getHits(tableId);
+            long misses = m.getMisses(tableId);
+            out.printf("table %s: %d hits, %d misses (%.1f%% hits)", name, hits, misses,
+                    100.0 * hits / Math.max(1, hits + misses));
+            if (file instanceof CompressedHeapFile) {
+                out.printf(", compression %.2f", ((CompressedHeapFile) file).getCompressionRatio());
+            }
+            out.println();
+        }
+    }
+
+    /** @return number of page requests served by a completed read-ahead */
+    public long getPrefetchHits() {
+        return prefetchHits.get();
+    }
+
+    /** @return number of page requests that waited for an in-flight read-ahead */
+    public long getPrefetchWaits() {
+        return prefetchWaits.get();
+    }
+
+    /**
+     * @return number of page requests that had to read from disk
+     *         synchronously, either themselves or by waiting for another
+     *         thread's read of the same page
+     */
+    public long getPrefetchMisses() {
+        return prefetchMisses.get();
+    }
+
+    /** @return the live counters of this pool */
+    public BufferPoolMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -97,6 +1055,7 @@ public class BufferPool {
     public  void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -107,13 +1066,14 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -127,6 +1087,267 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, commit, true);
+    }
+
+    /**
+     * Commit or abort a given transaction; release all locks associated to
+     * the transaction. The log is written ahead of the pages:
+     * <ul>
+     * <li>On commit, the pages the transaction dirtied are logged, with
+     * their before and after images, and then its commit record, which
+     * forces the log. If force is set, the pages are also written to disk
+     * before the commit record (FORCE); otherwise they stay dirty in the
+     * pool and the log alone makes the commit durable (NO-FORCE).
+     * <li>On abort, the pages it dirtied go back to their before images,
+     * the last committed versions, which stay dirty since they may hold
+     * commits that are not on disk yet, and the pages it wrote to disk while it was running (STEAL) are rolled back
+     * by {@link LogFile#logAbort} from the before images in the log.
+     * </ul>
+     * Transactions that wrote nothing to the log do not write a commit or
+     * abort record. Pages changed in row-locking mode are not logged with
+     * their images; the pages with the transaction's inserts are written
+     * before its commit record, and its deletes applied after it, or its
+     * inserts undone tuple by tuple on abort. See {@link #setRowLocking}.
+     *
+     * @param tid the ID of the transaction requesting the unlock
+     * @param commit a flag indicating whether we should commit or abort
+     * @param force whether a commit writes the transaction's pages to disk
+     */
+    public void transactionComplete(TransactionId tid, boolean commit, boolean force)
+        throws IOException {
+        LogFile log = Database.getLogFile();
+        RowChanges changes = rowChanges.get(tid);
+        try {
+            if (commit) {
+                if (changes != null) {
+                    // recovery does not redo inserts, so they reach disk before the commit record
+                    writeRowPages(changes.pages);
+                }
+                if (force) {
+                    flushPages(tid);
+                } else {
+                    logPages(tid);
+                }
+                if (changes != null) {
+                    commitRowChanges(tid, changes);
+                } else if (log.isLogged(tid)) {
+                    log.logCommit(tid);
+                }
+                // the committed versions are the before images of the next writers
+                for (PageId pid : lockManager.getLockedPages(tid)) {
+                    Frame frame = pageCache.get(pid);
+                    if (frame != null && lockManager.holdsExclusiveLock(tid, pid)) {
+                        frame.page.setBeforeImage();
+                    }
+                }
+            } else {
+                if (changes != null) {
+                    abortRowChanges(tid, changes);
+                }
+                // keep the page cleaner from writing the pages while they are restored
+                synchronized (this) {
+                    // changes that never reached disk are undone by going back
+                    // to the before images, the last committed versions; those
+                    // may not be on disk either (NO-FORCE), so they stay dirty
+                    List<Page> restored = new ArrayList<>();
+                    for (Page page : pagesDirtiedBy(tid)) {
+                        if (changes == null || !changes.pages.contains(page.getId())) {
+                            restored.add(page.getBeforeImage());
+                        }
+                    }
+                    try {
+                        cacheDirtyPages(tid, restored);
+                    } catch (DbException e) {
+                        throw new IOException("cannot restore the pages of " + tid, e);
+                    }
+                    if (log.isLogged(tid)) {
+                        log.logAbort(tid);
+                    }
+                }
+            }
+        } finally {
+            rowChanges.remove(tid);
+            writtenPages.remove(tid);
+            lockManager.releaseAll(tid);
+        }
+    }
+
+    /**
+     * Logs the pages tid dirtied, with their before and after images, for
+     * a commit that does not write them.
+     */
+    private synchronized void logPages(TransactionId tid) throws IOException {
+        LogFile log = Database.getLogFile();
+        for (Page page : pagesDirtiedBy(tid)) {
+            synchronized (page) {
+                if (tid.equals(page.isDirty()) && !isRowPage(page)) {
+                    logUpdate(log, tid, page);
+                }
+            }
+        }
+    }
+
+    /**
+     * Logs an update record for a dirty page, unless the page is the same
+     * as its before image: then it holds no change to undo, and a commit
+     * that left it dirty has logged it already. Logging such pages again
+     * would make their committed transaction look running to the log.
+     *
+     * @return whether a record was logged
+     */
+    private static boolean logUpdate(LogFile log, TransactionId dirtier, Page page) throws IOException {
+        Page before = page.getBeforeImage();
+        if (Arrays.equals(before.getPageData(), page.getPageData())) {
+            return false;
+        }
+        log.logWrite(dirtier, before, page);
+        return true;
+    }
+
+    /**
+     * @return whether page is changed tuple by tuple, in row-locking mode,
+     *   so that it must not be logged with its images
+     */
+    private boolean isRowPage(Page page) {
+        return rowLocking && page instanceof HeapFilePage;
+    }
+
+    /**
+     * Logs the deletes of a committing transaction in row-locking mode and
+     * its commit record, applies the deletes and writes out the pages they
+     * changed. A checkpoint, which takes the pool's monitor, either comes
+     * before the delete records or finds the deletes applied.
+     */
+    private void commitRowChanges(TransactionId tid, RowChanges changes) throws IOException {
+        LogFile log = Database.getLogFile();
+        Set<PageId> pinned = new HashSet<>();
+        try {
+            pinRowPages(tid, changes.deleted.values(), pinned);
+            synchronized (this) {
+                for (RecordId rid : changes.deleted.keySet()) {
+                    log.logRowDelete(tid, rid);
+                }
+                log.logCommit(tid);
+                for (Tuple t : changes.deleted.values()) {
+                    heapFile(t).removeTuple(tid, t);
+                }
+            }
+        } catch (DbException | TransactionAbortedException e) {
+            throw new IOException("cannot apply the deletes of " + tid, e);
+        } finally {
+            for (PageId pid : pinned) {
+                unpinPage(pid);
+            }
+        }
+        writeRowPages(changes.pages);
+    }
+
+    /**
+     * Undoes the inserts of an aborting transaction in row-locking mode,
+     * the last first, logging each before it is undone, and writes out the
+     * pages they were on. Those pages cannot simply be discarded, since
+     * other transactions may have changed them too.
+     */
+    private void abortRowChanges(TransactionId tid, RowChanges changes) throws IOException {
+        LogFile log = Database.getLogFile();
+        Set<PageId> pinned = new HashSet<>();
+        try {
+            pinRowPages(tid, changes.inserted, pinned);
+            // like the deletes of a commit, the undo records and the undos go together for checkpoints
+            synchronized (this) {
+                for (int i = changes.inserted.size() - 1; i >= 0; i--) {
+                    Tuple t = changes.inserted.get(i);
+                    log.logRowUndo(tid, t.getRecordId());
+                    heapFile(t).removeTuple(tid, t);
+                }
+            }
+        } catch (DbException | TransactionAbortedException e) {
+            throw new IOException("cannot undo the inserts of " + tid, e);
+        } finally {
+            for (PageId pid : pinned) {
+                unpinPage(pid);
+            }
+        }
+        writeRowPages(changes.pages);
+    }
+
+    /**
+     * Pins the pages of tuples that tid changed in row-locking mode, adding
+     * them to pinned, so that changing the tuples under the pool's monitor
+     * reads no page from disk.
+     */
+    private void pinRowPages(TransactionId tid, Collection<Tuple> tuples, Set<PageId> pinned)
+        throws TransactionAbortedException, DbException {
+        for (Tuple t : tuples) {
+            PageId pid = t.getRecordId().getPageId();
+            if (!pinned.contains(pid)) {
+                pinPageForRowUpdate(tid, pid);
+                pinned.add(pid);
+            }
+        }
+    }
+
+    /**
+     * Writes those of the specified pages changed in row-locking mode that
+     * are cached and dirty, and marks them clean. The image of each page
+     * is taken under its monitor, under which inserts change the page and
+     * log themselves, and the log forced afterwards, so that every change
+     * the images hold is logged on disk before they are written. The pages
+     * stay pinned until then, so that they are not evicted, and read back
+     * from disk without the changes, in the meantime.
+     */
+    private synchronized void writeRowPages(Collection<PageId> pids) throws IOException {
+        List<Frame> pinned = new ArrayList<>();
+        List<Page> pages = new ArrayList<>();
+        List<Page> images = new ArrayList<>();
+        List<TransactionId> dirtiers = new ArrayList<>();
+        try {
+            for (PageId pid : pids) {
+                Frame frame = pageCache.get(pid);
+                // a frame claimed for eviction holds a clean page
+                if (frame == null || !frame.pin()) {
+                    continue;
+                }
+                pinned.add(frame);
+                Page page = frame.page;
+                synchronized (page) {
+                    TransactionId dirtier = page.isDirty();
+                    if (dirtier == null) {
+                        continue;
+                    }
+                    page.setBeforeImage();
+                    images.add(page.getBeforeImage());
+                    page.markDirty(false, null);
+                    pages.add(page);
+                    dirtiers.add(dirtier);
+                }
+            }
+            if (images.isEmpty()) {
+                return;
+            }
+            Database.getLogFile().force();
+            try {
+                writeGrouped(images);
+            } catch (IOException e) {
+                for (int i = 0; i < pages.size(); i++) {
+                    synchronized (pages.get(i)) {
+                        if (pages.get(i).isDirty() == null) {
+                            pages.get(i).markDirty(true, dirtiers.get(i));
+                        }
+                    }
+                }
+                throw e;
+            }
+        } finally {
+            for (Frame frame : pinned) {
+                frame.unpin();
+            }
+        }
+    }
+
+    private static HeapFile heapFile(Tuple t) {
+        return (HeapFile) Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
     }
 
     /**
@@ -148,6 +1369,26 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtyPages(tid, file.insertTuple(tid, t));
+    }
+
+    /**
+     * Add a batch of tuples to the specified table on behalf of transaction
+     * tid, using the bulk load path of the table's DbFile. Pages that the
+     * file fills completely in memory may be appended to it directly
+     * rather than passing through the buffer pool; all other modified pages
+     * are marked dirty and cached as in {@link #insertTuple}.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     * @see DbFile#insertTuples
+     */
+    public void insertTuples(TransactionId tid, int tableId, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        cacheDirtyPages(tid, file.insertTuples(tid, tuples));
     }
 
     /**
@@ -167,6 +1408,25 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        if (t.getRecordId() == null) {
+            throw new DbException("tuple is not stored in any table");
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        cacheDirtyPages(tid, file.deleteTuple(tid, t));
+    }
+
+    /**
+     * Marks pages modified by tid as dirty and makes them the cached
+     * versions, so that later requests see the updates.
+     */
+    private void cacheDirtyPages(TransactionId tid, List<Page> pages) throws DbException {
+        for (Page page : pages) {
+            page.markDirty(true, tid);
+            if (tid != null) {
+                noteWrite(tid, page.getId());
+            }
+            cachePage(page, false, true, false, -1);
+        }
     }
 
     /**
@@ -177,7 +1437,14 @@ public class BufferPool {
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-
+        List<Page> dirty = new ArrayList<>();
+        for (Frame frame : pageCache.values()) {
+            Page page = frame.page;
+            if (page.isDirty() != null) {
+                dirty.add(page);
+            }
+        }
+        writePages(dirty);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -191,6 +1458,30 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
+        cancelPrefetch(pid);
+        removePage(pid);
+    }
+
+    /** Drops the specified page from the cache. */
+    private void removePage(PageId pid) {
+        policyLock.lock();
+        try {
+            Frame frame = pageCache.remove(pid);
+            if (frame == null) {
+                return;
+            }
+            evictionPolicy.pageRemoved(pid);
+            if (!frame.reclaim()) {
+                // still pinned: the last unpinPage frees the frame
+                retiredFrames.add(frame);
+                if (!frame.reclaim() || !retiredFrames.remove(frame)) {
+                    return;
+                }
+            }
+            releaseFrame(frame.frameNo);
+        } finally {
+            policyLock.unlock();
+        }
     }
 
     /**
@@ -200,6 +1491,25 @@ public class BufferPool {
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
+        flushPages(Collections.singleton(pid));
+    }
+
+    /** Flushes those of the specified pages that are cached and dirty. */
+    private synchronized void flushPages(Collection<PageId> pids) throws IOException {
+        writePages(dirtyPages(pids));
+    }
+
+    /** @return those of the specified pages that are cached and dirty */
+    private List<Page> dirtyPages(Collection<PageId> pids) {
+        List<Page> dirty = new ArrayList<>();
+        for (PageId pid : pids) {
+            Frame frame = pageCache.get(pid);
+            Page page = frame == null ? null : frame.page;
+            if (page != null && page.isDirty() != null) {
+                dirty.add(page);
+            }
+        }
+        return dirty;
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -207,15 +1517,351 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        writePages(pagesDirtiedBy(tid));
+    }
+
+    /**
+     * Writes dirty pages to disk as a group and marks them clean. Each
+     * page is logged, with its before and after images, and the log
+     * forced before any of them is written, since they may hold changes
+     * of transactions that have not committed yet; pages changed in
+     * row-locking mode are written by {@link #writeRowPages} instead.
+     */
+    private void writePages(List<Page> pages) throws IOException {
+        LogFile log = Database.getLogFile();
+        List<Page> whole = new ArrayList<>();
+        List<PageId> rowPages = new ArrayList<>();
+        boolean logged = false;
+        for (Page page : pages) {
+            if (isRowPage(page)) {
+                rowPages.add(page.getId());
+                continue;
+            }
+            whole.add(page);
+            TransactionId dirtier = page.isDirty();
+            if (dirtier != null) {
+                logged |= logUpdate(log, dirtier, page);
+            }
+        }
+        if (logged) {
+            log.force();
+        }
+        writeGrouped(whole);
+        for (Page page : whole) {
+            page.markDirty(false, null);
+        }
+        writeRowPages(rowPages);
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Writes pages to disk as a group: the pages are sorted by table and
+     * page number and each table's pages are handed to its DbFile in a
+     * single call, which writes runs of consecutive pages sequentially, and
+     * each file is forced once, after all of its pages have been written.
      */
-    private synchronized  void evictPage() throws DbException {
+    private void writeGrouped(List<Page> pages) throws IOException {
+        pages.sort(Comparator.comparingInt((Page p) -> p.getId().getTableId())
+                .thenComparingInt(p -> p.getId().pageNumber()));
+        int start = 0;
+        while (start < pages.size()) {
+            int tableId = pages.get(start).getId().getTableId();
+            int end = start + 1;
+            while (end < pages.size() && pages.get(end).getId().getTableId() == tableId) {
+                end++;
+            }
+            List<Page> tablePages = pages.subList(start, end);
+            DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+            long startNanos = System.nanoTime();
+            file.writePages(tablePages);
+            file.force();
+            metrics.recordWrite(tablePages.size(), System.nanoTime() - startNanos);
+            start = end;
+        }
+    }
+
+    /**
+     * Starts a background thread that checks every intervalMillis
+     * milliseconds whether more than the specified fraction of the pool is
+     * dirty and if so, writes dirty pages until half that fraction is
+     * left, with {@link #cleanPages}. Eviction, which never writes pages
+     * itself, then finds clean pages to evict rather than failing or
+     * waiting for commits. Replaces the running page cleaner, if any.
+     *
+     * @param dirtyWatermark the fraction of the pool, between 0 and 1,
+     *   that may be dirty before the cleaner starts writing
+     */
+    public synchronized void startPageCleaner(double dirtyWatermark, long intervalMillis) {
+        if (dirtyWatermark < 0 || dirtyWatermark > 1 || intervalMillis <= 0) {
+            throw new IllegalArgumentException("invalid page cleaner settings");
+        }
+        stopPageCleaner();
+        this.dirtyWatermark = dirtyWatermark;
+        pageCleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "BufferPool-cleaner");
+            t.setDaemon(true);
+            return t;
+        });
+        pageCleaner.scheduleWithFixedDelay(this::runPageCleaner, intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops the page cleaner started by {@link #startPageCleaner}, if any. */
+    public synchronized void stopPageCleaner() {
+        if (pageCleaner != null) {
+            pageCleaner.shutdown();
+            pageCleaner = null;
+        }
+    }
+
+    private void runPageCleaner() {
+        int dirty = getDirtyPageCount();
+        int watermark = (int) (dirtyWatermark * numPages);
+        if (dirty > watermark) {
+            try {
+                cleanPages(dirty - watermark / 2);
+            } catch (IOException e) {
+                // the pages stay dirty and are tried again in the next round
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes up to maxPages dirty heap file pages that are not pinned to
+     * disk, although their transactions may still be running (STEAL), and
+     * marks them clean so that they can be evicted. Write-ahead logging is
+     * respected: an update record with the page's before and after images
+     * is logged and the log forced before the page is written, so that
+     * the page can be rolled back if its transaction aborts.
+     * <p>
+     * In row-locking mode heap file pages are left alone, as they may hold
+     * the changes of several transactions and are written when those
+     * complete, and so are pages of other kinds of files, which are not
+     * changed under the page's monitor.
+     *
+     * @return the number of pages written
+     */
+    synchronized int cleanPages(int maxPages) throws IOException {
+        LogFile log = Database.getLogFile();
+        List<Frame> pinned = new ArrayList<>();
+        List<Page> pages = new ArrayList<>();
+        List<TransactionId> dirtiers = new ArrayList<>();
+        try {
+            for (Frame frame : pageCache.values()) {
+                if (pages.size() >= maxPages) {
+                    break;
+                }
+                Page page = frame.page;
+                if (!(page instanceof HeapFilePage) || page.isDirty() == null
+                        || isRowPage(page) || frame.pins.get() != 0) {
+                    continue;
+                }
+                // keeps the page from being evicted, and read back from disk, before it is written
+                if (!frame.pin()) {
+                    continue;
+                }
+                pinned.add(frame);
+                synchronized (page) {
+                    TransactionId tid = page.isDirty();
+                    if (tid == null) {
+                        continue;
+                    }
+                    logUpdate(log, tid, page);
+                    // changes made from now on dirty the page again
+                    page.markDirty(false, null);
+                    pages.add(page);
+                    dirtiers.add(tid);
+                }
+            }
+            if (pages.isEmpty()) {
+                return 0;
+            }
+            log.force();
+            try {
+                writeGrouped(new ArrayList<>(pages));
+            } catch (IOException e) {
+                for (int i = 0; i < pages.size(); i++) {
+                    synchronized (pages.get(i)) {
+                        if (pages.get(i).isDirty() == null) {
+                            pages.get(i).markDirty(true, dirtiers.get(i));
+                        }
+                    }
+                }
+                throw e;
+            }
+            return pages.size();
+        } finally {
+            for (Frame frame : pinned) {
+                frame.unpin();
+            }
+        }
+    }
+
+    /**
+     * Sets the file that {@link #saveSnapshot()} writes, e.g. on
+     * checkpoints; null, the default, disables it.
+     */
+    public void setSnapshotFile(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /** @return the file that {@link #saveSnapshot()} writes, or null */
+    public File getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * Saves the ids of the cached pages to the file set with
+     * {@link #setSnapshotFile}, if any.
+     */
+    public void saveSnapshot() throws IOException {
+        File file = snapshotFile;
+        if (file != null) {
+            saveSnapshot(file);
+        }
+    }
+
+    /**
+     * Writes the ids of the cached pages, the ones the eviction policy
+     * would keep longest first, to the specified file, so that
+     * {@link #loadSnapshot} can read the same pages back after a restart.
+     * Only the ids are saved, not the contents of the pages. The file is
+     * replaced atomically, so a crash leaves the previous snapshot.
+     */
+    public void saveSnapshot(File file) throws IOException {
+        List<PageId> pages;
+        policyLock.lock();
+        try {
+            pages = evictionPolicy.getPagesByHotness();
+        } finally {
+            policyLock.unlock();
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(pages.size());
+            for (PageId pid : pages) {
+                int[] data = pid.serialize();
+                out.writeUTF(pid.getClass().getName());
+                out.writeInt(data.length);
+                for (int d : data) {
+                    out.writeInt(d);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Warms the pool up with the pages saved by {@link #saveSnapshot}: reads
+     * as many of the hottest ones as fit in the unused part of the pool.
+     * They are read in file order, so that the reads are sequential rather
+     * than in the random order in which the pages were last used. Pages of
+     * tables that are not in the catalog, or that no longer exist, are
+     * skipped, and so is the rest if the pool fills up. No locks are
+     * acquired; they are taken when the pages are requested.
+     *
+     * @return the number of pages read
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public int loadSnapshot(File file) throws IOException {
+        ArrayList<PageId> pages = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException(file + " is not a buffer pool snapshot");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String idClassName = in.readUTF();
+                int[] data = new int[in.readInt()];
+                for (int j = 0; j < data.length; j++) {
+                    data[j] = in.readInt();
+                }
+                PageId pid = snapshotPageId(idClassName, data);
+                if (Database.getCatalog().getTableName(pid.getTableId()) != null) {
+                    pages.add(pid);
+                }
+            }
+        }
+        int room = Math.max(0, numPages - pageCache.size());
+        List<PageId> warm = new ArrayList<>(pages.subList(0, Math.min(room, pages.size())));
+        warm.sort(Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::pageNumber));
+        int loaded = 0;
+        for (PageId pid : warm) {
+            if (pageCache.size() >= numPages) {
+                break;
+            }
+            if (pageCache.containsKey(pid)) {
+                continue;
+            }
+            try {
+                fetchPage(pid, false, false);
+                loaded++;
+            } catch (IllegalArgumentException e) {
+                // the file has shrunk since the snapshot
+            } catch (DbException e) {
+                // no room left
+                break;
+            }
+        }
+        return loaded;
+    }
+
+    /** Rebuilds a page id saved by saveSnapshot, see {@link PageId#serialize}. */
+    private static PageId snapshotPageId(String idClassName, int[] data) throws IOException {
+        try {
+            for (Constructor<?> c : Class.forName(idClassName).getConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == data.length && Arrays.stream(params).allMatch(int.class::equals)) {
+                    Object[] args = new Object[data.length];
+                    for (int i = 0; i < data.length; i++) {
+                        args[i] = data[i];
+                    }
+                    return (PageId) c.newInstance(args);
+                }
+            }
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IOException("cannot restore page id of class " + idClassName, e);
+        }
+        throw new IOException("no constructor for page id class " + idClassName);
+    }
+
+    /**
+     * Discards a page from the buffer pool, as chosen by the eviction
+     * policy. Dirty pages are not evicted, since this would write them on
+     * the path of the request that needs a frame, and neither are pinned
+     * pages; the page cleaner, if it is running, keeps clean pages
+     * available, and if none is left, fetchPage steals a dirty page. The
+     * arena frame of the evicted page becomes free.
+     *
+     * Called with policyLock held.
+     *
+     * @throws PoolFullException if every page in the pool is dirty or pinned
+     */
+    private void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
+        PageId victim = evictionPolicy.evict(pid -> {
+            Frame frame = pageCache.get(pid);
+            return frame.page.isDirty() == null && frame.reclaim();
+        });
+        if (victim == null) {
+            throw new PoolFullException();
+        }
+        releaseFrame(pageCache.remove(victim).frameNo);
+        metrics.recordEviction();
+    }
+
+    /** Thrown when no page can be evicted to make room for another. */
+    private static class PoolFullException extends DbException {
+        private static final long serialVersionUID = 1L;
+
+        PoolFullException() {
+            super("cannot evict a page: all pages in the buffer pool are dirty or pinned");
+        }
     }
 
 }
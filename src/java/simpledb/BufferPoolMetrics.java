@@ -0,0 +1,143 @@
+package simpledb;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters of a {@link BufferPool}: page requests that hit or missed
+ * the cache, per table, evictions, requests that waited for another
+ * thread's read of the page, and the latencies of page reads and writes.
+ * The counters are updated as the pool is used and can be read at any
+ * time; see {@link BufferPool#printStats} for the state of the pool itself.
+ *
+ * @Threadsafe
+ */
+public class BufferPoolMetrics {
+
+    /** Counters of one table */
+    private static final class TableCounters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+    }
+
+    private final ConcurrentHashMap<Integer, TableCounters> tables = new ConcurrentHashMap<>();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder pinWaits = new LongAdder();
+    private final LongAdder pagesWritten = new LongAdder();
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    private TableCounters table(int tableId) {
+        return tables.computeIfAbsent(tableId, id -> new TableCounters());
+    }
+
+    void recordHit(int tableId) {
+        table(tableId).hits.increment();
+    }
+
+    void recordMiss(int tableId) {
+        table(tableId).misses.increment();
+    }
+
+    void recordEviction() {
+        evictions.increment();
+    }
+
+    void recordPinWait() {
+        pinWaits.increment();
+    }
+
+    /** Records a page read from disk that took the specified time. */
+    void recordRead(long nanos) {
+        readLatency.record(nanos);
+    }
+
+    /** Records a write of the specified number of pages of one file, which took the specified time. */
+    void recordWrite(int pages, long nanos) {
+        pagesWritten.add(pages);
+        writeLatency.record(nanos);
+    }
+
+    /** @return the ids of the tables whose pages have been requested */
+    public Set<Integer> getTableIds() {
+        return new TreeSet<Integer>(tables.keySet());
+    }
+
+    /** @return the number of requests for pages of the table that found them cached */
+    public long getHits(int tableId) {
+        TableCounters counters = tables.get(tableId);
+        return counters == null ? 0 : counters.hits.sum();
+    }
+
+    /** @return the number of requests for pages of the table that had to read them */
+    public long getMisses(int tableId) {
+        TableCounters counters = tables.get(tableId);
+        return counters == null ? 0 : counters.misses.sum();
+    }
+
+    /** @return the number of requests, over all tables, that found their page cached */
+    public long getHits() {
+        long hits = 0;
+        for (TableCounters counters : tables.values()) {
+            hits += counters.hits.sum();
+        }
+        return hits;
+    }
+
+    /** @return the number of requests, over all tables, that had to read their page */
+    public long getMisses() {
+        long misses = 0;
+        for (TableCounters counters : tables.values()) {
+            misses += counters.misses.sum();
+        }
+        return misses;
+    }
+
+    /** @return the fraction of requests that found their page cached, or 0 if there were none */
+    public double getHitRatio() {
+        long hits = getHits();
+        long requests = hits + getMisses();
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    /** @return the number of pages evicted to make room for others */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of requests that missed and found the page being
+     *   read into a frame by another thread, and waited for that read
+     *   before they could use, and pin, the page
+     */
+    public long getPinWaits() {
+        return pinWaits.sum();
+    }
+
+    /** @return the number of pages written to disk */
+    public long getPagesWritten() {
+        return pagesWritten.sum();
+    }
+
+    /** @return the latencies of page reads from disk */
+    public LatencyHistogram getReadLatency() {
+        return readLatency;
+    }
+
+    /** @return the latencies of writes to disk, each of which may cover several pages */
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    /** Resets all counters. */
+    public void reset() {
+        tables.clear();
+        evictions.reset();
+        pinWaits.reset();
+        pagesWritten.reset();
+        readLatency.reset();
+        writeLatency.reset();
+    }
+}
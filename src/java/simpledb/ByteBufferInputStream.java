@@ -0,0 +1,48 @@
+package simpledb;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * InputStream that reads from a ByteBuffer without copying it. Used to
+ * decode pages directly out of direct or memory-mapped buffers with the
+ * same DataInputStream based parsing code that is used for byte arrays.
+ * Reading advances the position of the wrapped buffer.
+ */
+class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buf;
+
+    /**
+     * @param buf the buffer to read from, starting at its current position
+     */
+    public ByteBufferInputStream(ByteBuffer buf) {
+        this.buf = buf;
+    }
+
+    public int read() {
+        if (!buf.hasRemaining())
+            return -1;
+        return buf.get() & 0xFF;
+    }
+
+    public int read(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+        if (!buf.hasRemaining())
+            return -1;
+        len = Math.min(len, buf.remaining());
+        buf.get(b, off, len);
+        return len;
+    }
+
+    public long skip(long n) {
+        int skipped = (int) Math.max(0, Math.min(n, buf.remaining()));
+        buf.position(buf.position() + skipped);
+        return skipped;
+    }
+
+    public int available() {
+        return buf.remaining();
+    }
+}
@@ -1,7 +1,5 @@
 package simpledb;
 
-import javafx.scene.control.Tab;
-
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
@@ -136,15 +134,32 @@ public class Catalog {
         return null;
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing any open file handles */
     public void clear() {
         // some code goes here
+        for (Table table : tables.values()) {
+            if (table.file instanceof HeapFile) {
+                try {
+                    ((HeapFile) table.file).close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
         tables.clear();
         name_id.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes one table as
+     * <pre>
+     *   name (field type [pk], field type, ...) [format] [compressed]
+     * </pre>
+     * where type is int, string or varchar and the optional format names
+     * the {@link HeapPageFormat} of the table's pages (row, slotted or pax).
+     * Tables without a format use {@link HeapPageFormat#defaultFor(TupleDesc)}.
+     * Tables marked compressed are opened as a {@link CompressedHeapFile}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -158,6 +173,7 @@ public class Catalog {
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String options = line.substring(line.indexOf(")") + 1).trim();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
@@ -165,10 +181,9 @@ public class Catalog {
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
-                    if (els2[1].trim().toLowerCase().equals("int"))
-                        types.add(Type.INT_TYPE);
-                    else if (els2[1].trim().toLowerCase().equals("string"))
-                        types.add(Type.STRING_TYPE);
+                    Type type = Type.forName(els2[1]);
+                    if (type != null)
+                        types.add(type);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -185,7 +200,21 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                HeapPageFormat format = HeapPageFormat.defaultFor(t);
+                boolean compressed = false;
+                for (String option : options.isEmpty() ? new String[0] : options.split("\\s+")) {
+                    if (option.equalsIgnoreCase("compressed"))
+                        compressed = true;
+                    else if (HeapPageFormat.forName(option) != null)
+                        format = HeapPageFormat.forName(option);
+                    else {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf = compressed ? new CompressedHeapFile(dataFile, t, format)
+                        : new HeapFile(dataFile, t, format);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
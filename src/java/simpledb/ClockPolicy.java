@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The CLOCK replacement policy: every cached page occupies a slot of a
+ * ring with a reference bit, which is set when the page is requested. To
+ * find a victim the hand sweeps the ring, clearing bits, until it reaches
+ * an evictable page whose bit is clear.
+ * <p>
+ * Requests from sequential scans do not set the reference bit, so pages
+ * read only by scans are the first to go.
+ */
+public class ClockPolicy implements EvictionPolicy {
+
+    private final ArrayList<PageId> ring = new ArrayList<>();
+    private final BitSet referenced = new BitSet();
+    private final Map<PageId, Integer> slotOf = new HashMap<>();
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private int hand = 0;
+
+    public void setCapacity(int numPages) {
+        // the ring grows with the pool as needed
+    }
+
+    public void pageAdded(PageId pid, boolean sequential) {
+        int slot;
+        if (freeSlots.isEmpty()) {
+            slot = ring.size();
+            ring.add(pid);
+        } else {
+            slot = freeSlots.pop();
+            ring.set(slot, pid);
+        }
+        slotOf.put(pid, slot);
+        referenced.set(slot, !sequential);
+    }
+
+    public void pageAccessed(PageId pid, boolean sequential) {
+        Integer slot = slotOf.get(pid);
+        if (slot != null && !sequential) {
+            referenced.set(slot);
+        }
+    }
+
+    public void pageRemoved(PageId pid) {
+        Integer slot = slotOf.remove(pid);
+        if (slot != null) {
+            ring.set(slot, null);
+            referenced.clear(slot);
+            freeSlots.push(slot);
+        }
+    }
+
+    public PageId evict(Filter filter) {
+        // two sweeps: the first may only clear reference bits
+        for (int step = 0; step < 2 * ring.size(); step++) {
+            if (hand >= ring.size()) {
+                hand = 0;
+            }
+            int slot = hand++;
+            PageId pid = ring.get(slot);
+            if (pid == null) {
+                continue;
+            }
+            if (referenced.get(slot)) {
+                referenced.clear(slot);
+                continue;
+            }
+            if (!filter.canEvict(pid)) {
+                continue;
+            }
+            pageRemoved(pid);
+            return pid;
+        }
+        return null;
+    }
+
+    public List<PageId> getPagesByHotness() {
+        // the hand reaches unreferenced pages first, in ring order
+        ArrayList<PageId> pages = new ArrayList<>(slotOf.size());
+        for (int pass = 0; pass < 2; pass++) {
+            for (int step = 0; step < ring.size(); step++) {
+                int slot = (hand + step) % ring.size();
+                PageId pid = ring.get(slot);
+                if (pid != null && referenced.get(slot) == (pass == 1)) {
+                    pages.add(pid);
+                }
+            }
+        }
+        Collections.reverse(pages);
+        return pages;
+    }
+}
@@ -0,0 +1,452 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are stored Deflate
+ * compressed, for cold tables where reading fewer bytes matters more than
+ * the CPU spent inflating them. Pages are compressed one at a time, so any
+ * page format can be compressed, and readPage returns ordinary pages.
+ * <p>
+ * Compressed pages have different sizes, so the data file is a sequence of
+ * compressed page images and a separate index file, named after the data
+ * file with ".idx" appended, records where each page is:
+ * <pre>
+ *   int    magic number
+ *   int    page size
+ *   int    dictionary length, followed by the dictionary
+ *   (long offset, int length) for each page
+ * </pre>
+ * A page image that does not shrink is stored as is, with length equal to
+ * the page size. A rewritten page is always appended to the data file, and
+ * its images are forced before the index is updated to point at them, so
+ * that a crash in between leaves the old image in use rather than an index
+ * entry that does not match the bytes on disk. The space of old images is
+ * not reclaimed.
+ * <p>
+ * The dictionary is a Deflate preset dictionary built by
+ * {@link #compress} from the values of the table's low-cardinality string
+ * columns. Those values are then encoded as back references into the
+ * dictionary even the first time they appear on a page.
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    private static final int MAGIC = 0x53444243;
+    private static final int INDEX_HEADER_SIZE = 12;
+    private static final int INDEX_ENTRY_SIZE = 12;
+
+    /** Largest preset dictionary Deflate can make use of */
+    static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+    /** String columns with more distinct values than this are not put in the dictionary */
+    static final int MAX_DICTIONARY_VALUES = 256;
+
+    private final File indexFile;
+    /** Protects everything below */
+    private final Object indexLock = new Object();
+    private FileChannel indexChannel;
+    private boolean loaded = false;
+    private byte[] dictionary;
+    private long[] offsets = new long[16];
+    private int[] lengths = new int[16];
+    private int count;
+    /** Offset at which the next appended page image is written */
+    private long dataEnd;
+    /** Sum of the stored lengths of all pages */
+    private long storedBytes;
+
+    /**
+     * Constructs a compressed heap file backed by the specified data file
+     * and its index. A file that does not exist yet starts out empty, with
+     * no dictionary.
+     */
+    public CompressedHeapFile(File f, TupleDesc td, HeapPageFormat pageFormat) {
+        super(f, td, pageFormat);
+        this.indexFile = new File(f.getPath() + ".idx");
+    }
+
+    /** @return the index file that records where each page is stored */
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Compressed pages cannot be read through a memory mapping.
+     *
+     * @throws UnsupportedOperationException if memoryMapped is true
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        if (memoryMapped) {
+            throw new UnsupportedOperationException("compressed heap files cannot be memory mapped");
+        }
+    }
+
+    public void close() throws IOException {
+        super.close();
+        synchronized (indexLock) {
+            if (indexChannel != null) {
+                indexChannel.close();
+                indexChannel = null;
+            }
+        }
+    }
+
+    /** Forces the index along with the compressed images. */
+    public void force() throws IOException {
+        super.force();
+        synchronized (indexLock) {
+            getIndexChannel().force(false);
+        }
+    }
+
+    private FileChannel getIndexChannel() throws IOException {
+        if (indexChannel == null || !indexChannel.isOpen()) {
+            indexChannel = new RandomAccessFile(indexFile, "rw").getChannel();
+        }
+        return indexChannel;
+    }
+
+    /**
+     * Reads the index into memory the first time it is needed, creating an
+     * empty index if there is none. Must be called holding indexLock.
+     */
+    private void loadIndex() throws IOException {
+        if (loaded) {
+            return;
+        }
+        if (!indexFile.exists() || indexFile.length() == 0) {
+            createIndex(new byte[0]);
+            return;
+        }
+        FileChannel ch = getIndexChannel();
+        ByteBuffer index = ByteBuffer.allocate((int) ch.size());
+        while (index.hasRemaining()) {
+            if (ch.read(index, index.position()) < 0) {
+                throw new IOException("truncated index " + indexFile);
+            }
+        }
+        index.flip();
+        if (index.remaining() < INDEX_HEADER_SIZE || index.getInt() != MAGIC) {
+            throw new IOException(indexFile + " is not a compressed heap file index");
+        }
+        if (index.getInt() != BufferPool.getPageSize()) {
+            throw new IOException(indexFile + " was written with a different page size");
+        }
+        dictionary = new byte[index.getInt()];
+        index.get(dictionary);
+        count = 0;
+        dataEnd = 0;
+        storedBytes = 0;
+        while (index.remaining() >= INDEX_ENTRY_SIZE) {
+            long offset = index.getLong();
+            int length = index.getInt();
+            setEntry(count, offset, length);
+            dataEnd = Math.max(dataEnd, offset + length);
+        }
+        if (index.hasRemaining()) {
+            throw new IOException(indexFile + " is corrupt: it ends in a partial entry");
+        }
+        loaded = true;
+    }
+
+    /**
+     * Starts a new, empty index with the specified dictionary. Must be
+     * called holding indexLock.
+     */
+    private void createIndex(byte[] dictionary) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_SIZE + dictionary.length);
+        header.putInt(MAGIC).putInt(BufferPool.getPageSize()).putInt(dictionary.length).put(dictionary);
+        header.flip();
+        FileChannel ch = getIndexChannel();
+        ch.truncate(0);
+        while (header.hasRemaining()) {
+            ch.write(header, header.position());
+        }
+        this.dictionary = dictionary;
+        count = 0;
+        dataEnd = 0;
+        storedBytes = 0;
+        loaded = true;
+    }
+
+    /** Records the location of a page in memory. Must be called holding indexLock. */
+    private void setEntry(int pgNo, long offset, int length) {
+        if (pgNo >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, Math.max(pgNo + 1, offsets.length * 2));
+            lengths = Arrays.copyOf(lengths, offsets.length);
+        }
+        if (pgNo < count) {
+            storedBytes -= lengths[pgNo];
+        } else {
+            count = pgNo + 1;
+        }
+        offsets[pgNo] = offset;
+        lengths[pgNo] = length;
+        storedBytes += length;
+    }
+
+    protected int pagesOnDisk() {
+        synchronized (indexLock) {
+            try {
+                loadIndex();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return count;
+        }
+    }
+
+    protected boolean readPageImage(int pgNo, ByteBuffer into) throws IOException {
+        long offset;
+        int length;
+        byte[] dict;
+        synchronized (indexLock) {
+            loadIndex();
+            if (pgNo < 0 || pgNo >= count) {
+                return false;
+            }
+            offset = offsets[pgNo];
+            length = lengths[pgNo];
+            dict = dictionary;
+        }
+        // images stored raw are read straight into the target buffer
+        ByteBuffer stored = length == BufferPool.getPageSize() ? into : ByteBuffer.allocate(length);
+        int start = stored.position();
+        FileChannel ch = getChannel();
+        while (stored.hasRemaining()) {
+            if (ch.read(stored, offset + stored.position() - start) < 0) {
+                throw new IOException("compressed image of page " + pgNo + " is truncated");
+            }
+        }
+        if (stored != into) {
+            into.put(inflate(stored.array(), dict));
+        }
+        return true;
+    }
+
+    protected void writePageImages(int firstPgNo, ByteBuffer images) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        byte[] dict;
+        synchronized (indexLock) {
+            loadIndex();
+            dict = dictionary;
+        }
+        // compress outside the lock
+        List<byte[]> stored = new ArrayList<byte[]>();
+        while (images.hasRemaining()) {
+            byte[] image = new byte[pageSize];
+            images.get(image);
+            stored.add(deflate(image, dict));
+        }
+
+        synchronized (indexLock) {
+            if (firstPgNo < 0 || firstPgNo > count) {
+                throw new IOException("cannot write page " + firstPgNo + " of a file with " + count + " pages");
+            }
+            FileChannel ch = getChannel();
+            ByteBuffer entries = ByteBuffer.allocate(stored.size() * INDEX_ENTRY_SIZE);
+            for (int i = 0; i < stored.size(); i++) {
+                int pgNo = firstPgNo + i;
+                byte[] data = stored.get(i);
+                // never over an old image, which the index may still point at after a crash
+                long offset = dataEnd;
+                dataEnd += data.length;
+                ByteBuffer buf = ByteBuffer.wrap(data);
+                while (buf.hasRemaining()) {
+                    ch.write(buf, offset + buf.position());
+                }
+                setEntry(pgNo, offset, data.length);
+                entries.putLong(offset).putInt(data.length);
+            }
+            ch.force(false);
+            entries.flip();
+            long entriesOffset = INDEX_HEADER_SIZE + dictionary.length + (long) firstPgNo * INDEX_ENTRY_SIZE;
+            FileChannel index = getIndexChannel();
+            while (entries.hasRemaining()) {
+                index.write(entries, entriesOffset + entries.position());
+            }
+        }
+    }
+
+    /**
+     * Returns the ratio of the size of this file's pages to the number of
+     * bytes their stored images take in the data file.
+     */
+    public double getCompressionRatio() {
+        synchronized (indexLock) {
+            try {
+                loadIndex();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (storedBytes == 0) {
+                return 1.0;
+            }
+            return (double) count * BufferPool.getPageSize() / storedBytes;
+        }
+    }
+
+    /**
+     * @return the Deflate compressed form of image, or image itself if it
+     *   does not get smaller
+     */
+    private static byte[] deflate(byte[] image, byte[] dictionary) {
+        Deflater deflater = new Deflater();
+        try {
+            if (dictionary.length > 0) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(image);
+            deflater.finish();
+            byte[] out = new byte[image.length];
+            int n = 0;
+            while (!deflater.finished() && n < out.length) {
+                n += deflater.deflate(out, n, out.length - n);
+            }
+            return deflater.finished() && n < image.length ? Arrays.copyOf(out, n) : image;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] stored, byte[] dictionary) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            byte[] image = new byte[BufferPool.getPageSize()];
+            int n = 0;
+            while (n < image.length && !inflater.finished()) {
+                int read = inflater.inflate(image, n, image.length - n);
+                if (read == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput()) {
+                        throw new IOException("compressed page image is truncated");
+                    }
+                }
+                n += read;
+            }
+            if (n < image.length) {
+                throw new IOException("compressed page image is too short");
+            }
+            return image;
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Writes a compressed copy of the uncompressed heap file source, whose
+     * pages have the specified schema and format, to target and its index,
+     * replacing them if they exist.
+     * <p>
+     * Values of string columns with at most {@link #MAX_DICTIONARY_VALUES}
+     * distinct values are put in the preset dictionary, most frequent last
+     * (so they are closest to the data), up to {@link #MAX_DICTIONARY_SIZE}
+     * bytes.
+     *
+     * @return the compressed file, which has not been added to the catalog
+     */
+    public static CompressedHeapFile compress(File source, File target, TupleDesc td, HeapPageFormat format)
+            throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int numPages = (int) (source.length() / pageSize);
+
+        // first pass: count the values of string columns
+        List<Map<String, Integer>> valueCounts = new ArrayList<Map<String, Integer>>();
+        for (int i = 0; i < td.numFields(); i++) {
+            boolean string = td.getFieldType(i) != Type.INT_TYPE;
+            valueCounts.add(string ? new HashMap<String, Integer>() : null);
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(source)));
+        try {
+            byte[] image = new byte[pageSize];
+            for (int p = 0; p < numPages; p++) {
+                in.readFully(image);
+                Iterator<Tuple> it = format.createPage(new HeapPageId(0, p), td, image.clone()).iterator();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    for (int i = 0; i < valueCounts.size(); i++) {
+                        Map<String, Integer> counts = valueCounts.get(i);
+                        if (counts == null) {
+                            continue;
+                        }
+                        String value = ((StringField) t.getField(i)).getValue();
+                        Integer c = counts.get(value);
+                        if (c == null && counts.size() == MAX_DICTIONARY_VALUES) {
+                            // too many distinct values to be worth it
+                            valueCounts.set(i, null);
+                            continue;
+                        }
+                        counts.put(value, c == null ? 1 : c + 1);
+                    }
+                }
+            }
+        } finally {
+            in.close();
+        }
+        byte[] dictionary = buildDictionary(valueCounts);
+
+        // second pass: write the compressed pages
+        target.delete();
+        CompressedHeapFile file = new CompressedHeapFile(target, td, format);
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(source)));
+        try {
+            synchronized (file.indexLock) {
+                file.createIndex(dictionary);
+            }
+            ByteBuffer run = ByteBuffer.allocate(64 * pageSize);
+            int runStart = 0;
+            for (int p = 0; p < numPages; p++) {
+                in.readFully(run.array(), run.position(), pageSize);
+                run.position(run.position() + pageSize);
+                if (!run.hasRemaining() || p == numPages - 1) {
+                    run.flip();
+                    file.writePageImages(runStart, run);
+                    run.clear();
+                    runStart = p + 1;
+                }
+            }
+        } finally {
+            in.close();
+            file.close();
+        }
+        return file;
+    }
+
+    /**
+     * Concatenates the length-prefixed values of the low-cardinality
+     * columns, least frequent first, keeping the last MAX_DICTIONARY_SIZE
+     * bytes. Values are prefixed with their length as in StringField's
+     * serialized form.
+     */
+    private static byte[] buildDictionary(List<Map<String, Integer>> valueCounts) throws IOException {
+        List<Map.Entry<String, Integer>> values = new ArrayList<Map.Entry<String, Integer>>();
+        for (Map<String, Integer> counts : valueCounts) {
+            if (counts != null) {
+                values.addAll(counts.entrySet());
+            }
+        }
+        Collections.sort(values, new Comparator<Map.Entry<String, Integer>>() {
+            public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+                return a.getValue().compareTo(b.getValue());
+            }
+        });
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (Map.Entry<String, Integer> value : values) {
+            dos.writeInt(value.getKey().length());
+            dos.writeBytes(value.getKey());
+        }
+        dos.flush();
+        byte[] all = baos.toByteArray();
+        return Arrays.copyOfRange(all, Math.max(0, all.length - MAX_DICTIONARY_SIZE), all.length);
+    }
+}
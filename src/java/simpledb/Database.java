@@ -55,11 +55,28 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, new ClockPolicy());
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * that uses the specified eviction policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy evictionPolicy) {
+        return resetBufferPool(pages, evictionPolicy, false);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * that uses the specified eviction policy and, if offHeap is set, keeps
+     * its pages in direct memory, and return it
+     */
+    public static BufferPool resetBufferPool(int pages, EvictionPolicy evictionPolicy, boolean offHeap) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), new BufferPool(pages, evictionPolicy, offHeap));
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
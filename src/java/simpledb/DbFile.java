@@ -3,6 +3,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -19,6 +20,20 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Read the specified page from disk into frame, a page-sized buffer
+     * owned by the buffer pool, and return a page that is a view of it.
+     * Files whose pages cannot be views of a raw image may ignore frame;
+     * the default implementation does so and calls {@link #readPage(PageId)}.
+     *
+     * @param frame a buffer with position 0 and room for exactly one page
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     * @see BufferPool#BufferPool(int, EvictionPolicy, boolean)
+     */
+    public default Page readPage(PageId id, ByteBuffer frame) {
+        return readPage(id);
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -28,6 +43,33 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push the specified pages to disk. The pages are sorted by page
+     * number, so files that can write runs of consecutive pages at once
+     * override this to turn them into sequential writes; the default
+     * implementation writes the pages one at a time with
+     * {@link #writePage}. The writes need not be durable until
+     * {@link #force} is called.
+     *
+     * @param pages the pages to write, in increasing page number order
+     * @throws IOException if a write fails
+     */
+    public default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+    }
+
+    /**
+     * Forces the pages written so far to stable storage. The default
+     * implementation does nothing, for files whose writes do not go
+     * through a cache.
+     *
+     * @throws IOException if the file cannot be synced
+     */
+    public default void force() throws IOException {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -43,6 +85,35 @@ public interface DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts all tuples produced by the iterator into the file on behalf of
+     * transaction tid. Files that can lay out whole pages at once override
+     * this to load large batches at sequential I/O speed; the default
+     * implementation inserts the tuples one at a time with
+     * {@link #insertTuple}.
+     * <p>
+     * Modified pages are marked dirty as soon as they are changed, so that
+     * the buffer pool does not evict them before the load completes.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add.  Each tuple is updated to reflect
+     *          that it is now stored in this file.
+     * @return An ArrayList containing the cached pages that were modified
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public default ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        Map<PageId, Page> modified = new LinkedHashMap<PageId, Page>();
+        while (tuples.hasNext()) {
+            for (Page p : insertTuple(tid, tuples.next())) {
+                p.markDirty(true, tid);
+                modified.put(p.getId(), p);
+            }
+        }
+        return new ArrayList<Page>(modified.values());
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
@@ -0,0 +1,66 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * EvictionPolicy decides which page the BufferPool evicts when it needs
+ * room for another one. The buffer pool tells the policy about every page
+ * it caches, hits and drops, and asks it for a victim among the pages it is
+ * allowed to evict. All methods are called with the buffer pool's policy
+ * lock held, so implementations need not be thread safe.
+ *
+ * @see BufferPool#BufferPool(int, EvictionPolicy)
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Tells the policy which pages may currently be evicted. The buffer pool
+     * claims a page for eviction when it accepts it, so the policy must
+     * evict the first page the filter accepts.
+     */
+    interface Filter {
+        boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Sets the number of pages the buffer pool holds. Called before any
+     * other method, and again whenever the pool is resized.
+     */
+    void setCapacity(int numPages);
+
+    /**
+     * A page that was not cached has been added to the pool.
+     *
+     * @param sequential true if the page was requested by a sequential scan
+     */
+    void pageAdded(PageId pid, boolean sequential);
+
+    /**
+     * A cached page has been requested again.
+     *
+     * @param sequential true if the page was requested by a sequential scan
+     */
+    void pageAccessed(PageId pid, boolean sequential);
+
+    /**
+     * A page has been dropped from the pool other than through
+     * {@link #evict}, e.g. because it was discarded.
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Chooses a page to evict among those accepted by filter and forgets
+     * it, as if {@link #pageRemoved} had been called.
+     *
+     * @return the page to evict, or null if filter accepts none of the
+     *   cached pages
+     */
+    PageId evict(Filter filter);
+
+    /**
+     * Returns the cached pages the policy knows about, the ones it would
+     * keep longest first. Used to save the contents of the pool so that it
+     * can be warmed up after a restart.
+     */
+    List<PageId> getPagesByHotness();
+}
@@ -0,0 +1,107 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Off-heap memory for the pages of a {@link BufferPool}: a number of
+ * page-sized frames, preallocated in direct ByteBuffers. Pages read into a
+ * frame are views of it, so the cached page images do not live on the Java
+ * heap and the garbage collector does not have to trace or copy them.
+ * <p>
+ * A single direct buffer cannot hold more than 2GB, so the frames are
+ * spread over as many buffers of up to {@link #CHUNK_BYTES} bytes as needed.
+ * The arena can be resized: growing it allocates buffers for the new
+ * frames, and shrinking it drops the buffers that only hold frames beyond
+ * the new size, whose memory is freed once no page is a view of it any
+ * more. The arena does not keep track of which frames are in use.
+ *
+ * @Threadsafe
+ */
+class FrameArena {
+
+    /** Size of the direct buffers the frames are allocated in */
+    static final int CHUNK_BYTES = 1 << 30;
+
+    private final int frameSize;
+    private final int framesPerChunk;
+    /** The buffers, in frame order, and the number of the first frame of each */
+    private final ArrayList<ByteBuffer> chunks = new ArrayList<>();
+    private final ArrayList<Integer> firstFrames = new ArrayList<>();
+    /** Number of frames the buffers have room for, which may exceed numFrames */
+    private int capacity;
+    private int numFrames;
+
+    /**
+     * Allocates numFrames frames of frameSize bytes each.
+     */
+    public FrameArena(int numFrames, int frameSize) {
+        if (numFrames < 0 || frameSize <= 0 || frameSize > CHUNK_BYTES) {
+            throw new IllegalArgumentException("invalid arena of " + numFrames + " frames of " + frameSize + " bytes");
+        }
+        this.frameSize = frameSize;
+        this.framesPerChunk = CHUNK_BYTES / frameSize;
+        resize(numFrames);
+    }
+
+    /** @return the number of frames in this arena */
+    public synchronized int getNumFrames() {
+        return numFrames;
+    }
+
+    /** @return the size of each frame in bytes */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Changes the number of frames in this arena. Frames below both the
+     * old and the new size keep their contents; the caller must make sure
+     * that frames beyond the new size are no longer in use.
+     */
+    public synchronized void resize(int numFrames) {
+        if (numFrames < 0) {
+            throw new IllegalArgumentException("invalid arena of " + numFrames + " frames");
+        }
+        while (capacity < numFrames) {
+            int frames = Math.min(framesPerChunk, numFrames - capacity);
+            chunks.add(ByteBuffer.allocateDirect(frames * frameSize));
+            firstFrames.add(capacity);
+            capacity += frames;
+        }
+        while (!chunks.isEmpty() && firstFrames.get(chunks.size() - 1) >= numFrames) {
+            int last = chunks.size() - 1;
+            capacity = firstFrames.get(last);
+            chunks.remove(last);
+            firstFrames.remove(last);
+        }
+        this.numFrames = numFrames;
+    }
+
+    /**
+     * Returns a buffer covering exactly the specified frame, with its
+     * position at 0 and its limit at the frame size. Writing to it writes
+     * the frame; the previous contents of the frame are not cleared.
+     */
+    public synchronized ByteBuffer frame(int frameNo) {
+        if (frameNo < 0 || frameNo >= numFrames) {
+            throw new IndexOutOfBoundsException("frame " + frameNo + " of " + numFrames);
+        }
+        // the last chunk that starts at or before the frame
+        int lo = 0;
+        int hi = chunks.size() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (firstFrames.get(mid) <= frameNo) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        ByteBuffer view = chunks.get(lo).duplicate();
+        int offset = (frameNo - firstFrames.get(lo)) * frameSize;
+        view.limit(offset + frameSize);
+        view.position(offset);
+        return view.slice();
+    }
+}
@@ -1,14 +1,18 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor; files can also use the other page layouts listed in
+ * {@link HeapPageFormat}.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -17,20 +21,60 @@ public class HeapFile implements DbFile {
 
     private final File file;
     private final TupleDesc tupleDesc;
+    private final HeapPageFormat pageFormat;
 
-    private final BufferPool bufferPool;
     /**
-     * Constructs a heap file backed by the specified file.
+     * Free space map: bit i is set if page i may have an empty slot. Bits
+     * are only cleared once a page is seen to be full and are set again when
+     * a tuple is deleted, so a set bit costs at most one page visit.
+     */
+    private final BitSet freeSpaceMap = new BitSet();
+    private boolean freeSpaceMapLoaded = false; // protected by freeSpaceMap
+
+    /** Opened lazily and shared by all callers; see {@link #getChannel()}. */
+    private volatile FileChannel channel;
+
+    /**
+     * When a mapped file has grown, remap it only once at least this many
+     * pages have been appended; until then new pages are read through the
+     * channel.
+     */
+    private static final int REMAP_GROWTH_PAGES = 64;
+
+    /** Maximum number of new pages appended by one write in {@link #insertTuples}. */
+    private static final int APPEND_RUN_PAGES = 64;
+
+    /** Cached number of pages, or -1 until first needed; see {@link #pageCount()}. */
+    private final AtomicInteger pageCount = new AtomicInteger(-1);
+    /** Held while extending the file so each new page gets a distinct number. */
+    private final Object appendLock = new Object();
+
+    private volatile boolean memoryMapped = false;
+    /** Read-only mapping of the file, or null; replaced under this lock. */
+    private volatile ByteBuffer mappedFile;
+
+    /**
+     * Constructs a heap file backed by the specified file, using the default
+     * page format for its schema.
      *
      * @param f
      *            the file that stores the on-disk backing store for this heap
      *            file.
+     * @see HeapPageFormat#defaultFor(TupleDesc)
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, HeapPageFormat.defaultFor(td));
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file whose pages have
+     * the specified format.
+     */
+    public HeapFile(File f, TupleDesc td, HeapPageFormat pageFormat) {
         // some code goes here
         this.file = f;
         this.tupleDesc = td;
-        this.bufferPool = Database.getBufferPool();
+        this.pageFormat = pageFormat;
     }
 
     /**
@@ -69,56 +113,261 @@ public class HeapFile implements DbFile {
         return this.tupleDesc;
     }
 
+    /** @return the layout of the pages of this file */
+    public HeapPageFormat getPageFormat() {
+        return pageFormat;
+    }
+
+    /**
+     * Returns the channel shared by all readers and writers of this file,
+     * opening it on first use. The channel is reopened if it was closed
+     * underneath us (e.g. by an interrupted reader).
+     */
+    protected FileChannel getChannel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                if (channel == null || !channel.isOpen()) {
+                    channel = new RandomAccessFile(file, "rw").getChannel();
+                }
+                ch = channel;
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Closes the channel backing this file. The file is transparently
+     * reopened if it is accessed again afterwards.
+     */
+    public synchronized void close() throws IOException {
+        mappedFile = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Enables or disables reading pages through a read-only memory mapping
+     * of this file. When enabled, {@link #readPage} builds pages directly
+     * over the mapped region instead of copying them into a fresh array,
+     * leaving the buffering to the OS page cache. This suits read-mostly
+     * tables; pages appended after the file was mapped are read through the
+     * channel until the file is remapped.
+     */
+    public synchronized void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        if (!memoryMapped) {
+            mappedFile = null;
+        }
+    }
+
+    /** @return true if pages of this file are read through a memory mapping */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Returns a read-only view of the specified page inside the memory
+     * mapping of this file, or null if the page is not covered by the
+     * mapping and must be read through the channel.
+     */
+    private ByteBuffer mappedPage(int pgNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long end = (long) (pgNo + 1) * pageSize;
+        ByteBuffer mapped = mappedFile;
+        if (mapped == null || end > mapped.capacity()) {
+            synchronized (this) {
+                mapped = mappedFile;
+                if (!memoryMapped) {
+                    return null;
+                }
+                if (mapped == null || end > mapped.capacity()) {
+                    long size = getChannel().size();
+                    long mappedSize = mapped == null ? 0 : mapped.capacity();
+                    if (end > size || size > Integer.MAX_VALUE
+                            || (mapped != null && size - mappedSize < (long) REMAP_GROWTH_PAGES * pageSize)) {
+                        return null;
+                    }
+                    mapped = getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    mappedFile = mapped;
+                }
+            }
+        }
+        ByteBuffer view = mapped.duplicate();
+        view.limit((int) end);
+        view.position((int) end - pageSize);
+        return view.slice();
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        // 计算page对应的偏移量
-        int pageSize = BufferPool.getPageSize();
-        int pageNumber = pid.pageNumber();
-        int offset = pageSize * pageNumber;
-        // 初始化空Page
-        Page page = null;
-        RandomAccessFile randomAccessFile = null;
         try {
-            randomAccessFile = new RandomAccessFile(file, "r");
-            byte[] data = new byte[pageSize];
-            randomAccessFile.seek(offset);
-            randomAccessFile.read(data);
-            page = new HeapPage(((HeapPageId) pid), data);
+            if (memoryMapped && pid.pageNumber() >= 0) {
+                ByteBuffer mapped = mappedPage(pid.pageNumber());
+                if (mapped != null) {
+                    return pageFormat.createPage((HeapPageId) pid, mapped);
+                }
+            }
+            ByteBuffer image = readPageImage(pid.pageNumber());
+            if (image == null) {
+                throw new IllegalArgumentException(String.format(
+                        "heapfile %d does not contain page %d", getId(), pid.pageNumber()));
+            }
+            return pageFormat.createPage((HeapPageId) pid, image);
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                randomAccessFile.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid, ByteBuffer frame) {
+        try {
+            if (!readPageImage(pid.pageNumber(), frame)) {
+                throw new IllegalArgumentException(String.format(
+                        "heapfile %d does not contain page %d", getId(), pid.pageNumber()));
             }
+            frame.flip();
+            return pageFormat.createPage((HeapPageId) pid, frame);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
         }
-        return page;
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
+        writePageImages(page.getId().pageNumber(), ByteBuffer.wrap(page.getPageData()));
+    }
+
+    /**
+     * Writes runs of consecutive pages with a single write each, of up to
+     * {@link #APPEND_RUN_PAGES} pages.
+     *
+     * @see DbFile#writePages
+     */
+    public void writePages(List<Page> pages) throws IOException {
         int pageSize = BufferPool.getPageSize();
-        int pageNumber = page.getId().pageNumber();
-        int offset = pageSize * pageNumber;
-        RandomAccessFile randomAccessFile = null;
-        try {
-            randomAccessFile = new RandomAccessFile(file, "rw");
-            randomAccessFile.seek(offset);
-            randomAccessFile.write(page.getPageData());
-        } finally {
-            randomAccessFile.close();
+        ByteBuffer run = ByteBuffer.allocate(Math.min(pages.size(), APPEND_RUN_PAGES) * pageSize);
+        int runStart = -1;
+        int runEnd = -1;
+        for (Page page : pages) {
+            int pgNo = page.getId().pageNumber();
+            if (runStart >= 0 && (pgNo != runEnd || !run.hasRemaining())) {
+                run.flip();
+                writePageImages(runStart, run);
+                run.clear();
+                runStart = -1;
+            }
+            if (runStart < 0) {
+                runStart = pgNo;
+            }
+            // in row-locking mode other transactions may be changing the page
+            synchronized (page) {
+                run.put(page.getPageData());
+            }
+            runEnd = pgNo + 1;
+        }
+        if (runStart >= 0) {
+            run.flip();
+            writePageImages(runStart, run);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void force() throws IOException {
+        getChannel().force(false);
+    }
+
+    /**
+     * Reads the stored image of the specified page into a new heap buffer.
+     *
+     * @return a buffer holding exactly the page, or null if the file does
+     *   not contain the page
+     */
+    private ByteBuffer readPageImage(int pgNo) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        if (!readPageImage(pgNo, buf)) {
+            return null;
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Reads the stored image of the specified page into into, which has
+     * exactly one page worth of bytes remaining. All page I/O of this file
+     * goes through this method and {@link #writePageImages}, so subclasses
+     * can store pages differently.
+     *
+     * @return false if the file does not contain the page
+     */
+    protected boolean readPageImage(int pgNo, ByteBuffer into) throws IOException {
+        // 计算page对应的偏移量
+        long offset = (long) BufferPool.getPageSize() * pgNo - into.position();
+        // positional reads do not touch the channel position, so
+        // concurrent readers can share the channel
+        FileChannel ch = getChannel();
+        while (into.hasRemaining()) {
+            if (ch.read(into, offset + into.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the images of consecutive pages, starting with page firstPgNo,
+     * from the remaining bytes of images. Pages may only be appended
+     * directly after the last page of the file.
+     */
+    protected void writePageImages(int firstPgNo, ByteBuffer images) throws IOException {
+        long offset = (long) firstPgNo * BufferPool.getPageSize() - images.position();
+        FileChannel ch = getChannel();
+        while (images.hasRemaining()) {
+            ch.write(images, offset + images.position());
         }
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the number of pages in this HeapFile. Unlike the cached count
+     * used by scans and inserts, this also picks up pages that were appended
+     * to the file without going through this HeapFile.
      */
     public int numPages() {
         // some code goes here
+        return pageCount.accumulateAndGet(pagesOnDisk(), Math::max);
+    }
+
+    /**
+     * Returns the ratio of the size of this file's pages to the number of
+     * bytes they take on disk. Uncompressed files always return 1.
+     *
+     * @see CompressedHeapFile
+     */
+    public double getCompressionRatio() {
+        return 1.0;
+    }
+
+    /**
+     * Returns the cached number of pages in this file, reading the file
+     * length only the first time. The count is advanced by the code that
+     * extends the file, after the new pages have been written.
+     */
+    private int pageCount() {
+        int count = pageCount.get();
+        if (count < 0) {
+            pageCount.compareAndSet(-1, pagesOnDisk());
+            count = pageCount.get();
+        }
+        return count;
+    }
+
+    /** @return the number of pages according to the length of the file on disk */
+    protected int pagesOnDisk() {
         long length = this.file.length();
         return ((int) Math.ceil(length * 1.0 / BufferPool.getPageSize()));
     }
@@ -127,43 +376,314 @@ public class HeapFile implements DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        List<Page> modified = new ArrayList<>();
-        for (int i = 0; i < numPages(); i++) {
-            HeapPage page = (HeapPage) bufferPool.getPage(tid, new HeapPageId(this.getId(), i), Permissions.READ_WRITE);
-            if (page.getNumEmptySlots() == 0) {
-
-                continue;
+        BufferPool bufferPool = Database.getBufferPool();
+        if (bufferPool.isRowLocking()) {
+            return insertTupleRowLocked(tid, t, bufferPool);
+        }
+        ArrayList<Page> modified = new ArrayList<>();
+        // 通过free space map找到可能有空槽的页,而不是从第0页开始逐页检查
+        for (int i = nextPageWithSpace(0); i >= 0; i = nextPageWithSpace(i + 1)) {
+            HeapPageId pid = new HeapPageId(this.getId(), i);
+            boolean locked = bufferPool.holdsLock(tid, pid);
+            HeapFilePage page = (HeapFilePage) bufferPool.pinPage(tid, pid, Permissions.READ_WRITE, false);
+            try {
+                if (!page.hasRoomFor(t)) {
+                    updateFreeSpace(i, page.getNumEmptySlots() > 0);
+                    // the page was only looked at, so other writers need not wait for us
+                    if (!locked) {
+                        bufferPool.releasePage(tid, pid);
+                    }
+                    continue;
+                }
+                // the page cleaner takes the page's monitor to write it
+                synchronized (page) {
+                    page.insertTuple(t);
+                    // once unpinned, only being dirty keeps the page from being evicted
+                    page.markDirty(true, tid);
+                }
+            } finally {
+                bufferPool.unpinPage(pid);
             }
-            page.insertTuple(t);
+            updateFreeSpace(i, page.getNumEmptySlots() > 0);
             modified.add(page);
-            return (ArrayList<Page>) modified;
+            return modified;
         }
         // 当所有的页都满时,我们需要创建新的页并写入文件中
-        BufferedOutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file, true));
-        byte[] emptyPageData = HeapPage.createEmptyPageData();
-        // 向文件末尾添加数据
-        outputStream.write(emptyPageData);
-        outputStream.close();
-        // 加载到缓存中,使用numPages() - 1是因为此时numPages()已经变为插入后的大小了
-        HeapPage page = (HeapPage) bufferPool.getPage(tid, new HeapPageId(getId(), numPages() - 1), Permissions.READ_WRITE);
-        page.insertTuple(t);
+        int pgNo = appendEmptyPage();
+        // 加载到缓存中
+        HeapPageId pid = new HeapPageId(getId(), pgNo);
+        HeapFilePage page = (HeapFilePage) bufferPool.pinPage(tid, pid, Permissions.READ_WRITE, false);
+        try {
+            synchronized (page) {
+                page.insertTuple(t);
+                page.markDirty(true, tid);
+            }
+        } finally {
+            bufferPool.unpinPage(pid);
+        }
+        updateFreeSpace(pgNo, page.getNumEmptySlots() > 0);
         modified.add(page);
-        return (ArrayList<Page>) modified;
+        return modified;
         // not necessary for lab1
     }
 
+    /** Appends an empty page to the file and returns its page number. */
+    private int appendEmptyPage() throws IOException {
+        synchronized (appendLock) {
+            // 向文件末尾添加数据
+            int pgNo = pageCount();
+            writePageImages(pgNo, ByteBuffer.wrap(HeapPage.createEmptyPageData()));
+            pageCount.accumulateAndGet(pgNo + 1, Math::max);
+            return pgNo;
+        }
+    }
+
+    /**
+     * Inserts a tuple in row-locking mode: the page it goes on is only
+     * locked in intention-exclusive mode, so other transactions may be
+     * inserting on it at the same time, and the new tuple is locked
+     * exclusively.
+     *
+     * @see BufferPool#setRowLocking
+     */
+    private ArrayList<Page> insertTupleRowLocked(TransactionId tid, Tuple t, BufferPool bufferPool)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo = nextPageWithSpace(0);
+        while (true) {
+            if (pgNo < 0) {
+                pgNo = appendEmptyPage();
+            }
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            boolean locked = bufferPool.holdsLock(tid, pid);
+            HeapFilePage page = (HeapFilePage) bufferPool.pinPageForRowUpdate(tid, pid);
+            boolean inserted;
+            boolean hasSpace;
+            try {
+                synchronized (page) {
+                    inserted = page.hasRoomFor(t);
+                    if (inserted) {
+                        page.insertTuple(t);
+                        page.markDirty(true, tid);
+                        // logged before the page can be written with the tuple
+                        bufferPool.rowInserted(tid, t);
+                    }
+                    hasSpace = page.getNumEmptySlots() > 0;
+                }
+            } finally {
+                bufferPool.unpinPage(pid);
+            }
+            updateFreeSpace(pgNo, hasSpace);
+            if (inserted) {
+                bufferPool.lockTuple(tid, t.getRecordId(), Permissions.READ_WRITE);
+                ArrayList<Page> modified = new ArrayList<>();
+                modified.add(page);
+                return modified;
+            }
+            if (!locked) {
+                bufferPool.releaseRowPage(tid, pid);
+            }
+            pgNo = nextPageWithSpace(pgNo + 1);
+        }
+    }
+
+    /**
+     * Removes a tuple from its page for good, on behalf of tid, which
+     * changed the page in row-locking mode: to apply a delete when tid
+     * commits, or to undo an insert when it aborts.
+     */
+    void removeTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        PageId pid = t.getRecordId().getPageId();
+        HeapFilePage page = (HeapFilePage) bufferPool.pinPageForRowUpdate(tid, pid);
+        try {
+            synchronized (page) {
+                page.deleteTuple(t);
+                page.markDirty(true, tid);
+            }
+        } finally {
+            bufferPool.unpinPage(pid);
+        }
+        updateFreeSpace(pid.pageNumber(), true);
+    }
+
+    /**
+     * Bulk load path: first tops up the pages that the free space map says
+     * have room, through the buffer pool, and then packs the remaining
+     * tuples into whole new pages in memory and appends them to the file
+     * in runs of up to {@link #APPEND_RUN_PAGES} pages per write.
+     * <p>
+     * Appended pages go straight to disk and are not cached; only the
+     * pages that were topped up are returned. Each appended page is locked
+     * exclusively for tid before it is published, so that no other
+     * transaction reads it or inserts into it, and logged as an update of
+     * an empty page before it is written, so that it is emptied again if
+     * the transaction aborts.
+     *
+     * @see DbFile#insertTuples
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        ArrayList<Page> modified = new ArrayList<>();
+        if (bufferPool.isRowLocking()) {
+            // every tuple has to be locked and undoable on its own
+            while (tuples.hasNext()) {
+                for (Page page : insertTuple(tid, tuples.next())) {
+                    if (!modified.contains(page)) {
+                        modified.add(page);
+                    }
+                }
+            }
+            return modified;
+        }
+        // the tuple to insert next, or null once tuples is exhausted
+        Tuple next = tuples.hasNext() ? tuples.next() : null;
+        for (int i = nextPageWithSpace(0); i >= 0 && next != null; i = nextPageWithSpace(i + 1)) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            HeapFilePage page = (HeapFilePage) bufferPool.pinPage(tid, pid, Permissions.READ_WRITE, false);
+            try {
+                if (page.hasRoomFor(next)) {
+                    synchronized (page) {
+                        while (next != null && page.hasRoomFor(next)) {
+                            page.insertTuple(next);
+                            next = tuples.hasNext() ? tuples.next() : null;
+                        }
+                        // mark now so the page is not evicted while we fetch the next one
+                        page.markDirty(true, tid);
+                    }
+                    modified.add(page);
+                }
+            } finally {
+                bufferPool.unpinPage(pid);
+            }
+            updateFreeSpace(i, page.getNumEmptySlots() > 0);
+        }
+        if (next == null) {
+            return modified;
+        }
+
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer run = ByteBuffer.allocate(APPEND_RUN_PAGES * pageSize);
+        LogFile log = Database.getLogFile();
+        synchronized (appendLock) {
+            int runStart = pageCount();
+            int pgNo = runStart;
+            while (next != null) {
+                HeapPageId pid = new HeapPageId(getId(), pgNo);
+                bufferPool.lockPage(tid, pid, Permissions.READ_WRITE);
+                HeapFilePage page = pageFormat.createPage(pid,
+                        ByteBuffer.wrap(HeapPage.createEmptyPageData()));
+                if (!page.hasRoomFor(next)) {
+                    throw new DbException("tuple does not fit on an empty page");
+                }
+                while (next != null && page.hasRoomFor(next)) {
+                    page.insertTuple(next);
+                    next = tuples.hasNext() ? tuples.next() : null;
+                }
+                run.put(page.getPageData());
+                // logged as an update of an empty page, so that an abort empties it again
+                log.logWrite(tid, pageFormat.createPage(pid,
+                        ByteBuffer.wrap(HeapPage.createEmptyPageData())), page);
+                updateFreeSpace(pgNo, page.getNumEmptySlots() > 0);
+                pgNo++;
+                if (!run.hasRemaining() || next == null) {
+                    run.flip();
+                    // write-ahead: the run's log records reach disk first
+                    log.force();
+                    writePageImages(runStart, run);
+                    run.clear();
+                    // publish the run only once it is on disk
+                    pageCount.accumulateAndGet(pgNo, Math::max);
+                    runStart = pgNo;
+                }
+            }
+        }
+        return modified;
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException, IOException {
         // some code goes here
-        HeapPage page = (HeapPage) bufferPool.getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
-        page.deleteTuple(t);
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("tuple is not a member of this file");
+        }
+        BufferPool bufferPool = Database.getBufferPool();
+        if (bufferPool.isRowLocking()) {
+            deleteTupleRowLocked(tid, t, bufferPool);
+            return new ArrayList<>();
+        }
+        HeapFilePage page = (HeapFilePage) bufferPool.pinPage(tid, rid.getPageId(), Permissions.READ_WRITE, false);
+        try {
+            synchronized (page) {
+                page.deleteTuple(t);
+                page.markDirty(true, tid);
+            }
+        } finally {
+            bufferPool.unpinPage(rid.getPageId());
+        }
+        updateFreeSpace(rid.getPageId().pageNumber(), true);
         ArrayList<Page> modified = new ArrayList<>();
         modified.add(page);
         return modified;
         // not necessary for lab1
     }
 
+    /**
+     * Deletes a tuple in row-locking mode: the tuple is locked exclusively
+     * and stays on its page, hidden from tid's own scans, until tid commits.
+     *
+     * @see BufferPool#setRowLocking
+     */
+    private void deleteTupleRowLocked(TransactionId tid, Tuple t, BufferPool bufferPool)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        bufferPool.lockTuple(tid, rid, Permissions.READ_WRITE);
+        HeapFilePage page = (HeapFilePage) bufferPool.pinPageForRowUpdate(tid, rid.getPageId());
+        try {
+            synchronized (page) {
+                if (rid.tupleno() < 0 || !page.isSlotUsed(rid.tupleno())) {
+                    throw new DbException("tuple is not in this page");
+                }
+            }
+        } finally {
+            bufferPool.unpinPage(rid.getPageId());
+        }
+        if (!bufferPool.deferDelete(tid, t)) {
+            throw new DbException("tuple has already been deleted");
+        }
+    }
+
+    /**
+     * Returns the first page at or after the specified page that may have an
+     * empty slot according to the free space map, or -1 if there is none.
+     * The map is built lazily: the first time it is consulted every existing
+     * page is considered a candidate, and a page is dropped from the map once
+     * it has been seen to be full.
+     */
+    private int nextPageWithSpace(int from) {
+        synchronized (freeSpaceMap) {
+            int pages = pageCount();
+            if (!freeSpaceMapLoaded) {
+                freeSpaceMap.set(0, pages);
+                freeSpaceMapLoaded = true;
+            }
+            int next = freeSpaceMap.nextSetBit(from);
+            return next < pages ? next : -1;
+        }
+    }
+
+    /**
+     * Records in the free space map whether the specified page has room for
+     * at least one more tuple of any size.
+     */
+    private void updateFreeSpace(int pgNo, boolean hasSpace) {
+        synchronized (freeSpaceMap) {
+            freeSpaceMap.set(pgNo, hasSpace);
+        }
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
@@ -177,6 +697,14 @@ public class HeapFile implements DbFile {
         private final TransactionId tid;
         private Iterator<Tuple> iterator;
         private int pageNumber;
+        /** Highest page number read-ahead has been issued for */
+        private int readAheadThrough;
+        /** The page being iterated over, which is pinned in pinnedIn */
+        private PageId pinned;
+        private BufferPool pinnedIn;
+        private HeapFilePage page;
+        /** The tuple next returns, once hasNext has found and locked it */
+        private Tuple next;
 
         public HeapFileIterator(HeapFile file, TransactionId tid) {
             this.heapFile = file;
@@ -185,14 +713,37 @@ public class HeapFile implements DbFile {
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
+            this.next = null;
             this.pageNumber = 0;
+            this.readAheadThrough = 0;
             this.iterator = getPageTuples(pageNumber);
         }
 
+        /**
+         * Issues background reads for the pages following pageNo that are
+         * within the buffer pool's read-ahead window and not yet requested.
+         */
+        private void readAhead(int pageNo) {
+            BufferPool bufferPool = Database.getBufferPool();
+            int last = Math.min(pageNo + bufferPool.getReadAheadPages(), heapFile.pageCount() - 1);
+            for (int p = Math.max(pageNo, readAheadThrough) + 1; p <= last; p++) {
+                bufferPool.prefetchPage(new HeapPageId(heapFile.getId(), p));
+            }
+            readAheadThrough = Math.max(readAheadThrough, last);
+        }
+
         private Iterator<Tuple> getPageTuples(int pageNo) throws TransactionAbortedException, DbException {
-            if (pageNo >= 0 && pageNo < heapFile.numPages()) {
+            if (pageNo >= 0 && pageNo < heapFile.pageCount()) {
+                readAhead(pageNo);
                 HeapPageId heapPageId = new HeapPageId(heapFile.getId(), pageNo);
-                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_ONLY);
+                // tuples are decoded from the page as they are returned, so keep it pinned
+                unpin();
+                pinnedIn = Database.getBufferPool();
+                page = (HeapFilePage) pinnedIn.pinPage(tid, heapPageId, Permissions.READ_ONLY, true);
+                pinned = heapPageId;
+                if (pinnedIn.isRowLocking() && tid != null) {
+                    return new PendingDeleteFilter(page.iterator(), pinnedIn, tid);
+                }
                 return page.iterator();
             } else {
                 throw new DbException(String.format("heapfile %d does not contain page %d", pageNo, heapFile.getId()));
@@ -201,29 +752,46 @@ public class HeapFile implements DbFile {
 
         @Override
         public boolean hasNext() throws DbException, TransactionAbortedException {
-            if (iterator == null) {
-                return false;
-            }
-            while (iterator != null && !iterator.hasNext()) {
-                if (pageNumber < (heapFile.numPages() - 1)) {
+            while (next == null && iterator != null) {
+                if (iterator.hasNext()) {
+                    next = lockTuple(iterator.next());
+                } else if (pageNumber < (heapFile.pageCount() - 1)) {
                     pageNumber++;
                     iterator = getPageTuples(pageNumber);
                 } else {
                     iterator = null;
+                    unpin();
                 }
             }
-            if (iterator == null) {
-                return false;
+            return next != null;
+        }
+
+        /**
+         * In row-locking mode, where the page is only locked in
+         * intention-shared mode, locks t shared on behalf of tid.
+         *
+         * @return t, or null if it left the page while waiting for the
+         *   lock, because its delete committed or its insert was undone
+         */
+        private Tuple lockTuple(Tuple t) throws TransactionAbortedException {
+            if (tid == null || !pinnedIn.isRowLocking()) {
+                return t;
+            }
+            RecordId rid = t.getRecordId();
+            pinnedIn.lockTuple(tid, rid, Permissions.READ_ONLY);
+            synchronized (page) {
+                return page.isSlotUsed(rid.tupleno()) ? t : null;
             }
-            return iterator.hasNext();
         }
 
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            if (iterator == null || !iterator.hasNext()) {
+            if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            return iterator.next();
+            Tuple t = next;
+            next = null;
+            return t;
         }
 
         @Override
@@ -234,7 +802,63 @@ public class HeapFile implements DbFile {
 
         @Override
         public void close() {
+            if (iterator != null) {
+                // drop read-ahead this scan will no longer consume
+                for (int p = pageNumber + 1; p <= readAheadThrough; p++) {
+                    Database.getBufferPool().cancelPrefetch(new HeapPageId(heapFile.getId(), p));
+                }
+            }
             iterator = null;
+            next = null;
+            unpin();
+        }
+
+        /** Releases the pin on the current page, if any. */
+        private void unpin() {
+            if (pinned != null) {
+                pinnedIn.unpinPage(pinned);
+                pinned = null;
+                page = null;
+            }
+        }
+    }
+
+    /**
+     * Hides the tuples of a page that a transaction has deleted in
+     * row-locking mode, which stay on the page until it commits.
+     */
+    private static final class PendingDeleteFilter implements Iterator<Tuple> {
+
+        private final Iterator<Tuple> tuples;
+        private final BufferPool bufferPool;
+        private final TransactionId tid;
+        private Tuple next;
+
+        PendingDeleteFilter(Iterator<Tuple> tuples, BufferPool bufferPool, TransactionId tid) {
+            this.tuples = tuples;
+            this.bufferPool = bufferPool;
+            this.tid = tid;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && tuples.hasNext()) {
+                Tuple t = tuples.next();
+                if (!bufferPool.isDeletePending(tid, t.getRecordId())) {
+                    next = t;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Tuple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = next;
+            next = null;
+            return t;
         }
     }
 
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -76,10 +77,11 @@ public class HeapFileEncoder {
     * where each row represents a tuple.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
-    * HeapFile.
+    * HeapFile, or in SlottedHeapPage if any of the fields is a VARCHAR.
     *
     * @see HeapPage
     * @see HeapFile
+    * @see HeapPageFormat#defaultFor(Type[])
     * @param inFile The input file to read data from
     * @param outFile The output file to write data to
     * @param npagebytes The number of bytes per page in the output file
@@ -90,6 +92,22 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              HeapPageFormat.defaultFor(typeAr));
+  }
+
+   /** Convert the specified input text file into a binary page file whose
+    * pages have the specified format. The input is read as described in
+    * {@link #convert(File, File, int, int, Type[], char)}.
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator,
+                 HeapPageFormat format)
+      throws IOException {
+      if (format != HeapPageFormat.ROW) {
+          convertPages(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, format);
+          return;
+      }
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
@@ -145,7 +163,9 @@ public class HeapFileEncoder {
                     System.out.println ("BAD LINE : " + s);
                 }
             }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
+            else   if (typeAr[fieldNo] == Type.STRING_TYPE
+                       || typeAr[fieldNo] == Type.VARCHAR_TYPE) {
+                // row pages store VARCHARs in the fixed-width string layout
                 s = s.trim();
                 int overflow = Type.STRING_LEN - s.length();
                 if (overflow < 0) {
@@ -223,4 +243,83 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+   /** Convert the specified input text file into a compressed heap file,
+    * as read by {@link CompressedHeapFile}, whose pages have the specified
+    * format and {@link BufferPool#getPageSize()} bytes. The input is read
+    * as described in {@link #convert(File, File, int, int, Type[], char)}.
+    */
+  public static void convertCompressed(File inFile, File outFile,
+                 int numFields, Type[] typeAr, char fieldSeparator,
+                 HeapPageFormat format)
+      throws IOException {
+      File uncompressed = File.createTempFile("tempTable", ".dat");
+      try {
+          convert(inFile, uncompressed, BufferPool.getPageSize(), numFields, typeAr, fieldSeparator, format);
+          CompressedHeapFile.compress(uncompressed, outFile, new TupleDesc(typeAr), format);
+      } finally {
+          uncompressed.delete();
+      }
+  }
+
+  /**
+   * Writes the tuples of the input text file into pages of the specified
+   * format, which are built in memory and filled until the next tuple does
+   * not fit. Like the row format, an empty input produces one empty page.
+   */
+  private static void convertPages(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator,
+                 HeapPageFormat format)
+      throws IOException {
+      if (format != HeapPageFormat.SLOTTED && npagebytes != BufferPool.getPageSize()) {
+          throw new IllegalArgumentException(format + " pages must be " + BufferPool.getPageSize() + " bytes");
+      }
+      TupleDesc td = new TupleDesc(typeAr);
+      HeapPageId pid = new HeapPageId(0, 0);
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+      try {
+          HeapFilePage page = format.createPage(pid, td, new byte[npagebytes]);
+          boolean pageEmpty = true;
+          int npages = 0;
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.trim().isEmpty())
+                  continue;
+              String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+              if (values.length != numFields) {
+                  System.out.println ("BAD LINE : " + line);
+                  continue;
+              }
+              Tuple t = new Tuple(td);
+              try {
+                  for (int i = 0; i < numFields; i++) {
+                      if (typeAr[i] == Type.INT_TYPE)
+                          t.setField(i, new IntField(Integer.parseInt(values[i].trim())));
+                      else
+                          t.setField(i, new StringField(values[i].trim(), Type.STRING_LEN, typeAr[i]));
+                  }
+              } catch (NumberFormatException e) {
+                  System.out.println ("BAD LINE : " + line);
+                  continue;
+              }
+              if (!page.hasRoomFor(t) && !pageEmpty) {
+                  os.write(page.getPageData());
+                  npages++;
+                  page = format.createPage(pid, td, new byte[npagebytes]);
+              }
+              try {
+                  page.insertTuple(t);
+              } catch (DbException e) {
+                  throw new IOException("tuple does not fit on a page: " + line);
+              }
+              pageEmpty = false;
+          }
+          if (!pageEmpty || npages == 0)
+              os.write(page.getPageData());
+      } finally {
+          br.close();
+          os.close();
+      }
+  }
 }
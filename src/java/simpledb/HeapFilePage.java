@@ -0,0 +1,53 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * HeapFilePage is the interface implemented by every page layout a
+ * {@link HeapFile} can store its tuples in. Slots are numbered from 0 and
+ * a tuple's slot number is the tuple number of its {@link RecordId}.
+ *
+ * @see HeapPageFormat
+ */
+public interface HeapFilePage extends Page {
+
+    public HeapPageId getId();
+
+    /**
+     * Adds the specified tuple to the page and sets its RecordId.
+     * @throws DbException if the tuple does not fit or its TupleDesc does
+     *         not match the page's
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes the specified tuple from the page.
+     * @throws DbException if the tuple is not stored on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * Returns the number of tuples that can still be added to this page,
+     * assuming every one of them is as large as the schema allows. A
+     * positive result means any tuple of the table fits.
+     */
+    public int getNumEmptySlots();
+
+    /**
+     * Returns true if the specified tuple fits on this page. This can be
+     * true even if {@link #getNumEmptySlots()} is 0 when the tuple is
+     * smaller than the largest possible one.
+     */
+    public boolean hasRoomFor(Tuple t);
+
+    /**
+     * Returns true if the specified slot on this page holds a tuple.
+     */
+    public boolean isSlotUsed(int i);
+
+    /**
+     * @return an iterator over the tuples on this page; remove is not
+     * supported
+     */
+    public Iterator<Tuple> iterator();
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -11,13 +12,17 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {
+public class HeapPage implements HeapFilePage {
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
+    /** Tuples added since the page was read; other used slots are decoded from data */
     final Tuple[] tuples;
     final int numSlots;
+    final int tupleSize;
+    /** Raw image of the page as it was read, starting at position 0 */
+    final ByteBuffer data;
 
     byte[] oldData;
     private final Byte oldDataLock= (byte) 0;
@@ -42,27 +47,46 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage over the page image held in the specified buffer,
+     * starting at its current position. The buffer may be a view of a direct
+     * or memory-mapped region; its contents are neither copied nor modified.
+     * <p>
+     * Only the header is read up front. Tuples are decoded from the image
+     * when they are requested, so loading a page allocates almost nothing
+     * beyond the page object itself.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+    }
+
+    /**
+     * Create a HeapPage with the specified schema over the page image held
+     * in the specified buffer, for tables that are not in the catalog.
+     *
+     * @see #HeapPage(HeapPageId, ByteBuffer)
+     */
+    HeapPage(HeapPageId id, TupleDesc td, ByteBuffer data) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.tupleSize = td.getSize();
+        this.data = data.slice();
+        if (this.data.remaining() < BufferPool.getPageSize()) {
+            throw new IOException("page image is shorter than a page");
+        }
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+        this.data.duplicate().get(header);
 
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
 
-        setBeforeImage();
         this.dirty = false;
         this.tid = null;
     }
@@ -101,7 +125,11 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            if (oldDataRef == null) {
+                // not modified since it was read
+                oldDataRef = getRawData();
+            }
+            return createPage(oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -110,6 +138,14 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * Create a page of the same class and schema as this one over the
+     * specified image.
+     */
+    HeapPage createPage(byte[] data) throws IOException {
+        return new HeapPage(pid, td, ByteBuffer.wrap(data));
+    }
+
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
@@ -117,6 +153,27 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * Remember the image the page was read with as its before image, unless
+     * a before image has already been set. Must be called before the page is
+     * first modified, since the raw image may be rewritten once the modified
+     * page is flushed.
+     */
+    private void captureBeforeImage() {
+        synchronized(oldDataLock)
+        {
+            if (oldData == null)
+                oldData = getRawData();
+        }
+    }
+
+    /** @return a copy of the raw image this page was read with */
+    byte[] getRawData() {
+        byte[] raw = new byte[BufferPool.getPageSize()];
+        data.duplicate().get(raw);
+        return raw;
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -127,21 +184,21 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in the specified used slot, decoding it from the raw
+     * page image unless it was added after the page was read.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private Tuple getTuple(int slotId) throws NoSuchElementException {
+        Tuple t = tuples[slotId];
+        return t != null ? t : readTuple(slotId);
+    }
+
+    /**
+     * Decode the tuple stored in the specified slot of the raw page image.
+     */
+    Tuple readTuple(int slotId) throws NoSuchElementException {
+        ByteBuffer slot = data.duplicate();
+        slot.position(header.length + slotId * tupleSize);
+        DataInputStream dis = new DataInputStream(new ByteBufferInputStream(slot));
 
         // read fields in the tuple
         Tuple t = new Tuple(td);
@@ -187,11 +244,12 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
+        byte[] slotData = new byte[tupleSize];
         for (int i=0; i<tuples.length; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
+                for (int j=0; j<tupleSize; j++) {
                     try {
                         dos.writeByte(0);
                     } catch (IOException e) {
@@ -202,6 +260,19 @@ public class HeapPage implements Page {
                 continue;
             }
 
+            // slot unchanged since the page was read: copy its raw bytes
+            if (tuples[i] == null) {
+                ByteBuffer slot = data.duplicate();
+                slot.position(header.length + i * tupleSize);
+                slot.get(slotData);
+                try {
+                    dos.write(slotData);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
+
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
@@ -215,7 +286,7 @@ public class HeapPage implements Page {
         }
 
         // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.getPageSize() - (header.length + tupleSize * tuples.length); //- numSlots * td.getSize();
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -257,10 +328,13 @@ public class HeapPage implements Page {
         // some code goes here
         // not necessary for lab1
         RecordId recordId = t.getRecordId();
-        int slotId = recordId.tupleno();
-        if (recordId.getPageId() != this.pid || !isSlotUsed(slotId)) {
+        if (recordId == null || !this.pid.equals(recordId.getPageId())
+                || recordId.tupleno() < 0 || recordId.tupleno() >= numSlots
+                || !isSlotUsed(recordId.tupleno())) {
             throw new DbException("tuple is not in this page");
         }
+        int slotId = recordId.tupleno();
+        captureBeforeImage();
         // 将tuple对应的slot置为0
         markSlotUsed(slotId, false);
         // 将slot对应的tuple置为null
@@ -281,12 +355,19 @@ public class HeapPage implements Page {
         if (getNumEmptySlots() == 0 || !tupleDesc.equals(this.td)) {
             throw new DbException("this page is full or tupledesc is mismatch");
         }
-        for (int i = 0; i < numSlots; i++) {
-            if (!isSlotUsed(i)) {
-                markSlotUsed(i, true);
-                t.setRecordId(new RecordId(this.pid, i));
-                tuples[i] = t;
-                break;
+        captureBeforeImage();
+        // 跳过已满的header字节, 再在字节内找空槽
+        for (int b = 0; b < header.length; b++) {
+            if (header[b] == (byte) 0xFF) {
+                continue;
+            }
+            for (int i = b * 8; i < Math.min(numSlots, b * 8 + 8); i++) {
+                if (!isSlotUsed(i)) {
+                    markSlotUsed(i, true);
+                    t.setRecordId(new RecordId(this.pid, i));
+                    tuples[i] = t;
+                    return;
+                }
             }
         }
     }
@@ -316,13 +397,20 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int empty = 0;
-        for (int i = 0; i < numSlots; i++) {
-            if (!isSlotUsed(i)) {
-                empty++;
-            }
+        // header中超出numSlots的位始终为0, 所以直接统计置位的个数
+        int used = 0;
+        for (byte b : header) {
+            used += Integer.bitCount(b & 0xFF);
         }
-        return empty;
+        return numSlots - used;
+    }
+
+    /**
+     * Every slot of a HeapPage is as large as the largest tuple, so any
+     * tuple fits as long as there is an empty slot.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
     }
 
     /**
@@ -373,14 +461,39 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        List<Tuple> tupleList = new ArrayList<>();
-        // 将非空的槽的数据加入迭代器中
-        for (int i = 0; i < numSlots; i++) {
-            if (isSlotUsed(i)) {
-                tupleList.add(this.tuples[i]);
+        // 只复制header, tuple在next()时才解码
+        final byte[] used = header.clone();
+        return new Iterator<Tuple>() {
+            private int next = nextUsedSlot(used, 0);
+
+            public boolean hasNext() {
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = getTuple(next);
+                next = nextUsedSlot(used, next + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
             }
+        };
+    }
+
+    /**
+     * @return the first slot at or after from whose bit is set in the
+     * given header, or numSlots if there is none
+     */
+    private int nextUsedSlot(byte[] bitmap, int from) {
+        while (from < numSlots && ((bitmap[from / 8] >> (from % 8)) & 1) == 0) {
+            from++;
         }
-        return tupleList.iterator();
+        return from;
     }
 
 }
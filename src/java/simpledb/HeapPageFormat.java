@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The page layouts a HeapFile can use. Every page of a file has the same
+ * layout, and an all-zero page is an empty page in every layout.
+ */
+public enum HeapPageFormat {
+    /** Fixed-size slots and a used-slot bitmap; see {@link HeapPage}. */
+    ROW() {
+        @Override
+        HeapFilePage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+            return new HeapPage(pid, data);
+        }
+
+        @Override
+        HeapFilePage createPage(HeapPageId pid, TupleDesc td, byte[] data) throws IOException {
+            return new HeapPage(pid, td, ByteBuffer.wrap(data));
+        }
+    },
+    /** Variable-length records and a slot directory; see {@link SlottedHeapPage}. */
+    SLOTTED() {
+        @Override
+        HeapFilePage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+            return new SlottedHeapPage(pid, data);
+        }
+
+        @Override
+        HeapFilePage createPage(HeapPageId pid, TupleDesc td, byte[] data) throws IOException {
+            return new SlottedHeapPage(pid, td, data);
+        }
+    },
+    /** The slots of a HeapPage stored column by column; see {@link PaxHeapPage}. */
+    PAX() {
+        @Override
+        HeapFilePage createPage(HeapPageId pid, ByteBuffer data) throws IOException {
+            return new PaxHeapPage(pid, data);
+        }
+
+        @Override
+        HeapFilePage createPage(HeapPageId pid, TupleDesc td, byte[] data) throws IOException {
+            return new PaxHeapPage(pid, td, ByteBuffer.wrap(data));
+        }
+    };
+
+    /**
+     * Builds a page of this format from the page image held in the
+     * specified buffer, starting at its current position. The TupleDesc is
+     * looked up in the catalog.
+     */
+    abstract HeapFilePage createPage(HeapPageId pid, ByteBuffer data) throws IOException;
+
+    /**
+     * Builds a page of this format for the specified schema directly over
+     * data. Only slotted pages take their size from data; the other formats
+     * require it to be {@link BufferPool#getPageSize()} bytes long.
+     */
+    abstract HeapFilePage createPage(HeapPageId pid, TupleDesc td, byte[] data) throws IOException;
+
+    /**
+     * Returns the format used for tables that do not ask for a specific one:
+     * SLOTTED if any column is a VARCHAR, since only slotted pages store
+     * those at their actual length, and ROW otherwise.
+     */
+    public static HeapPageFormat defaultFor(Type[] types) {
+        for (Type t : types) {
+            if (t == Type.VARCHAR_TYPE) {
+                return SLOTTED;
+            }
+        }
+        return ROW;
+    }
+
+    /**
+     * @return the format with the specified name, as used in catalog schema
+     *   files (case insensitive), or null if there is none
+     */
+    public static HeapPageFormat forName(String name) {
+        for (HeapPageFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name.trim())) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /** @see #defaultFor(Type[]) */
+    public static HeapPageFormat defaultFor(TupleDesc td) {
+        Type[] types = new Type[td.numFields()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = td.getFieldType(i);
+        }
+        return defaultFor(types);
+    }
+}
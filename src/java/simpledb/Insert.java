@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
@@ -10,6 +12,9 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Number of child tuples handed to the bulk insert path at a time. */
+    private static final int INSERT_BATCH_SIZE = 8192;
+
     private final TransactionId tid;
     private DbIterator child;
     private final int tableId;
@@ -66,12 +71,13 @@ public class Insert extends Operator {
      * inserted records. Inserts should be passed through BufferPool. An
      * instances of BufferPool is available via Database.getBufferPool(). Note
      * that insert DOES NOT need check to see if a particular tuple is a
-     * duplicate before inserting it.
+     * duplicate before inserting it. Tuples are passed to the buffer pool in
+     * batches so that the table can fill whole pages at once.
      *
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
@@ -80,10 +86,15 @@ public class Insert extends Operator {
         }
         BufferPool bufferPool = Database.getBufferPool();
         int insertTuples = 0;
+        List<Tuple> batch = new ArrayList<>();
         while (child.hasNext()) {
+            batch.clear();
+            while (batch.size() < INSERT_BATCH_SIZE && child.hasNext()) {
+                batch.add(child.next());
+            }
             try {
-                bufferPool.insertTuple(tid, tableId, child.next());
-                insertTuples++;
+                bufferPool.insertTuples(tid, tableId, batch.iterator());
+                insertTuples += batch.size();
             } catch (IOException e) {
                 e.printStackTrace();
             }
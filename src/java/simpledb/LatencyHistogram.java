@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of operation latencies with power-of-two buckets: bucket i
+ * counts the operations that took less than 2^i microseconds, and at least
+ * 2^(i-1) microseconds for i > 0. Recording is lock-free, so it can be done
+ * on every page read and write.
+ *
+ * @Threadsafe
+ */
+public class LatencyHistogram {
+
+    /** The last bucket, 31, holds every operation that took 2^30 microseconds (about 18 minutes) or more */
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalMicros = new LongAdder();
+
+    /**
+     * Records an operation that took the specified number of nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        counts.incrementAndGet(bucket);
+        totalMicros.add(micros);
+    }
+
+    /** @return the number of operations recorded */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /** @return the mean latency in microseconds, or 0 if nothing was recorded */
+    public double getMeanMicros() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) totalMicros.sum() / count;
+    }
+
+    /**
+     * Returns an upper bound of the specified percentile of the recorded
+     * latencies: the upper bound of the bucket it falls in.
+     *
+     * @param percentile a number between 0 and 100
+     * @return the bound in microseconds, or 0 if nothing was recorded
+     */
+    public long getPercentileMicros(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank && seen > 0) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    /** Forgets all recorded operations. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        totalMicros.reset();
+    }
+
+    public String toString() {
+        return String.format("n=%d mean=%.1fus p50<%dus p99<%dus max<%dus", getCount(),
+                getMeanMicros(), getPercentileMicros(50), getPercentileMicros(99),
+                getPercentileMicros(100));
+    }
+}
@@ -0,0 +1,370 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockManager keeps track of the locks held by transactions for the
+ * {@link BufferPool}. Locks are taken on tables (see {@link #table}), pages
+ * and tuples, identified by their {@link RecordId}, in the modes of
+ * {@link Mode}: shared and exclusive locks, and the intention locks that a
+ * transaction takes on a table or page before locking pages or tuples in
+ * it. A transaction that asks for a lock it holds in a weaker mode has its
+ * lock upgraded, as soon as no other holder is in the way.
+ * <p>
+ * Requests that cannot be granted block until the lock is released. Each
+ * lock has its own condition, so releasing a lock only wakes up the
+ * transactions waiting for that lock.
+ * <p>
+ * Deadlocks are detected when a request blocks, by looking for a cycle
+ * through the requesting transaction in the waits-for graph, and broken by
+ * aborting the youngest transaction on the cycle, the one that has done the
+ * least work: its pending request fails with a {@link DeadlockException}.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** Lock modes, from weakest to strongest. */
+    public enum Mode {
+        /** intention to lock parts of the resource in shared mode */
+        IS,
+        /** intention to lock parts of the resource in exclusive mode */
+        IX,
+        SHARED,
+        /** shared, with the intention to lock parts of the resource in exclusive mode */
+        SIX,
+        EXCLUSIVE;
+
+        private static final boolean[][] COMPATIBLE = {
+            //          IS     IX     S      SIX    X
+            /* IS  */ { true,  true,  true,  true,  false },
+            /* IX  */ { true,  true,  false, false, false },
+            /* S   */ { true,  false, true,  false, false },
+            /* SIX */ { true,  false, false, false, false },
+            /* X   */ { false, false, false, false, false },
+        };
+
+        /** @return true if other transactions may hold both modes at once */
+        public boolean isCompatibleWith(Mode other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /** @return true if this mode grants everything other does */
+        public boolean covers(Mode other) {
+            if (this == other || this == EXCLUSIVE) {
+                return true;
+            }
+            switch (other) {
+            case IS:
+                return true;
+            case IX:
+            case SHARED:
+                return this == SIX;
+            default:
+                return false;
+            }
+        }
+
+        /** @return the weakest mode that grants everything both modes do */
+        public Mode combine(Mode other) {
+            if (covers(other)) {
+                return this;
+            }
+            if (other.covers(this)) {
+                return other;
+            }
+            // IX and SHARED
+            return SIX;
+        }
+    }
+
+    /** Identifies the lock on a whole table. */
+    private static final class TableLock {
+        final int tableId;
+
+        TableLock(int tableId) {
+            this.tableId = tableId;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof TableLock && ((TableLock) o).tableId == tableId;
+        }
+
+        public int hashCode() {
+            return tableId;
+        }
+
+        public String toString() {
+            return "table " + tableId;
+        }
+    }
+
+    /**
+     * @return the resource to lock to lock the specified table as a whole
+     */
+    public static Object table(int tableId) {
+        return new TableLock(tableId);
+    }
+
+    /** The holders of one lock and the number of waiters for it. */
+    private class Lock {
+        final Map<TransactionId, Mode> holders = new HashMap<>();
+        int waiters;
+        final Condition released = latch.newCondition();
+
+        boolean canGrant(TransactionId tid, Mode requested) {
+            Mode held = holders.get(tid);
+            Mode mode = held == null ? requested : held.combine(requested);
+            for (Map.Entry<TransactionId, Mode> holder : holders.entrySet()) {
+                if (!holder.getKey().equals(tid) && !holder.getValue().isCompatibleWith(mode)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Protects all of the state below */
+    private final ReentrantLock latch = new ReentrantLock();
+    private final Map<Object, Lock> locks = new HashMap<>();
+    private final Map<TransactionId, Set<Object>> lockedBy = new HashMap<>();
+    /** The resource each blocked transaction is waiting for */
+    private final Map<TransactionId, Object> waitingFor = new HashMap<>();
+    /** The mode each blocked transaction is waiting to hold its resource in */
+    private final Map<TransactionId, Mode> waitingMode = new HashMap<>();
+    /** Transactions chosen to break a deadlock that have not woken up yet */
+    private final Set<TransactionId> victims = new HashSet<>();
+
+    /**
+     * Acquires a lock on the specified page for tid, blocking until it can
+     * be granted: an exclusive or a shared lock.
+     *
+     * @see #acquire(TransactionId, Object, Mode)
+     */
+    public void acquire(TransactionId tid, PageId pid, boolean exclusive)
+        throws TransactionAbortedException {
+        acquire(tid, pid, exclusive ? Mode.EXCLUSIVE : Mode.SHARED);
+    }
+
+    /**
+     * Acquires a lock on the specified resource for tid, blocking until it
+     * can be granted. If tid already holds a lock on the resource, it ends
+     * up holding it in the weakest mode that covers both the mode it held
+     * and the requested one.
+     *
+     * @param resource a table as returned by {@link #table}, a PageId or a RecordId
+     * @throws DeadlockException if tid was chosen to abort to break a deadlock
+     * @throws TransactionAbortedException if the thread is interrupted while waiting
+     */
+    public void acquire(TransactionId tid, Object resource, Mode mode)
+        throws TransactionAbortedException {
+        latch.lock();
+        try {
+            Lock lock = locks.get(resource);
+            if (lock == null) {
+                lock = new Lock();
+                locks.put(resource, lock);
+            }
+            if (!lock.canGrant(tid, mode)) {
+                lock.waiters++;
+                waitingFor.put(tid, resource);
+                Mode held = lock.holders.get(tid);
+                waitingMode.put(tid, held == null ? mode : held.combine(mode));
+                boolean granted = false;
+                try {
+                    do {
+                        checkDeadlock(tid);
+                        lock.released.await();
+                    } while (!lock.canGrant(tid, mode));
+                    granted = true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TransactionAbortedException();
+                } finally {
+                    lock.waiters--;
+                    waitingFor.remove(tid);
+                    waitingMode.remove(tid);
+                    // the deadlock has been resolved some other way if we were chosen too late
+                    victims.remove(tid);
+                    if (!granted) {
+                        dropIfUnused(resource, lock);
+                    }
+                }
+            }
+            Mode held = lock.holders.get(tid);
+            lock.holders.put(tid, held == null ? mode : held.combine(mode));
+            Set<Object> resources = lockedBy.get(tid);
+            if (resources == null) {
+                resources = new HashSet<>();
+                lockedBy.put(tid, resources);
+            }
+            resources.add(resource);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Releases whatever lock tid holds on the specified resource.
+     */
+    public void release(TransactionId tid, Object resource) {
+        latch.lock();
+        try {
+            Set<Object> resources = lockedBy.get(tid);
+            if (resources != null && resources.remove(resource) && resources.isEmpty()) {
+                lockedBy.remove(tid);
+            }
+            unlock(tid, resource);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Releases all locks held by tid.
+     */
+    public void releaseAll(TransactionId tid) {
+        latch.lock();
+        try {
+            Set<Object> resources = lockedBy.remove(tid);
+            if (resources != null) {
+                for (Object resource : resources) {
+                    unlock(tid, resource);
+                }
+            }
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /** @return true if tid holds a lock of any mode on the resource */
+    public boolean holdsLock(TransactionId tid, Object resource) {
+        return getMode(tid, resource) != null;
+    }
+
+    /** @return true if tid holds an exclusive lock on the page */
+    public boolean holdsExclusiveLock(TransactionId tid, PageId pid) {
+        return getMode(tid, pid) == Mode.EXCLUSIVE;
+    }
+
+    /** @return the mode in which tid holds a lock on the resource, or null */
+    public Mode getMode(TransactionId tid, Object resource) {
+        latch.lock();
+        try {
+            Lock lock = locks.get(resource);
+            return lock == null ? null : lock.holders.get(tid);
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /** @return the pages tid holds locks on */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        latch.lock();
+        try {
+            Set<PageId> pages = new HashSet<PageId>();
+            Set<Object> resources = lockedBy.get(tid);
+            if (resources != null) {
+                for (Object resource : resources) {
+                    if (resource instanceof PageId) {
+                        pages.add((PageId) resource);
+                    }
+                }
+            }
+            return pages;
+        } finally {
+            latch.unlock();
+        }
+    }
+
+    /**
+     * Called before tid, which is waiting for a lock, blocks. Throws if tid
+     * has been chosen to abort. Otherwise, if tid is on a cycle of the
+     * waits-for graph, chooses the youngest transaction on the cycle to
+     * abort, which is tid itself or one that is woken up to notice.
+     */
+    private void checkDeadlock(TransactionId tid) throws DeadlockException {
+        if (victims.remove(tid)) {
+            throw new DeadlockException();
+        }
+        Deque<TransactionId> cycle = new ArrayDeque<>();
+        if (!findCycle(tid, tid, cycle, new HashSet<TransactionId>())) {
+            return;
+        }
+        TransactionId victim = tid;
+        for (TransactionId t : cycle) {
+            if (t.getId() > victim.getId()) {
+                victim = t;
+            }
+        }
+        if (victim.equals(tid)) {
+            throw new DeadlockException();
+        }
+        victims.add(victim);
+        locks.get(waitingFor.get(victim)).released.signalAll();
+    }
+
+    /**
+     * Depth-first search of the waits-for graph, which has an edge from
+     * each waiting transaction to every other holder of the lock it waits
+     * for whose mode conflicts with the requested one, for a path from from
+     * to target. Transactions that are already
+     * aborting are left out, since they will not wait much longer.
+     *
+     * @param path the transactions on the path so far, which on success
+     *   are those on the cycle
+     * @return true if there is a path
+     */
+    private boolean findCycle(TransactionId from, TransactionId target,
+            Deque<TransactionId> path, Set<TransactionId> visited) {
+        Object resource = waitingFor.get(from);
+        if (resource == null) {
+            return false;
+        }
+        Mode mode = waitingMode.get(from);
+        path.push(from);
+        List<Map.Entry<TransactionId, Mode>> holders = new ArrayList<>(locks.get(resource).holders.entrySet());
+        for (Map.Entry<TransactionId, Mode> entry : holders) {
+            TransactionId holder = entry.getKey();
+            if (holder.equals(from) || victims.contains(holder) || entry.getValue().isCompatibleWith(mode)) {
+                continue;
+            }
+            if (holder.equals(target)) {
+                return true;
+            }
+            if (visited.add(holder) && findCycle(holder, target, path, visited)) {
+                return true;
+            }
+        }
+        path.pop();
+        return false;
+    }
+
+    /** Drops tid from the holders of the lock and wakes up its waiters. */
+    private void unlock(TransactionId tid, Object resource) {
+        Lock lock = locks.get(resource);
+        if (lock == null) {
+            return;
+        }
+        lock.holders.remove(tid);
+        if (lock.waiters > 0) {
+            lock.released.signalAll();
+        }
+        dropIfUnused(resource, lock);
+    }
+
+    private void dropIfUnused(Object resource, Lock lock) {
+        if (lock.holders.isEmpty() && lock.waiters == 0) {
+            locks.remove(resource);
+        }
+    }
+}
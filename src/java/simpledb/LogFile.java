@@ -4,6 +4,9 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.lang.reflect.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -51,8 +54,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are nine record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, CLR, ROW_INSERT, ROW_DELETE and ROW_UNDO
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -61,6 +64,26 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li> CLR (compensation log) records are written when an update is
+undone, by a rollback or by recovery.  They consist of the page image the
+update was undone to, in the same format as the images of UPDATE records,
+followed by a long integer offset, undoNext: the offset of the undone
+update record.  Updates of the transaction at or after that offset have
+been undone, so recovery never undoes them twice.
+
+<li> ROW_INSERT, ROW_DELETE and ROW_UNDO records log the changes of
+heap file tuples in row-locking mode (see BufferPool.setRowLocking), where
+a page may hold the changes of several running transactions, so that its
+images cannot be used to undo any one of them.  They consist of the record
+id of the tuple: an integer table id, page number and slot number.
+ROW_INSERT records are written when a tuple is inserted, ROW_DELETE records
+just before the COMMIT record of the transaction that deleted the tuple,
+and ROW_UNDO records when an inserted tuple is removed again by an abort or
+by recovery.  A transaction's inserts reach disk before its COMMIT record,
+and its deletes are applied after it, so recovery only ever has to empty
+slots: those whose last change was the insert of a transaction that did
+not commit, the delete of one that did, or an undo.
+
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
@@ -82,6 +105,10 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int CLR_RECORD = 6;
+    static final int ROW_INSERT_RECORD = 7;
+    static final int ROW_DELETE_RECORD = 8;
+    static final int ROW_UNDO_RECORD = 9;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -93,6 +120,17 @@ public class LogFile {
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    // group commit: committers append their COMMIT record and then wait for
+    // a force that covers it; one of them at a time, the leader, does the
+    // force for everyone waiting
+    long commitsLogged = 0; // number of COMMIT records appended //protected by this
+    private final Object commitLock = new Object();
+    private long commitsForced = 0; // COMMIT records known to be on disk //protected by commitLock
+    private boolean forcing = false; // a leader is forcing the log //protected by commitLock
+    private long committersArrived = 0; //protected by commitLock
+    private long groupCommitMicros = 0; //protected by commitLock
+    private final AtomicLong forceCount = new AtomicLong();
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -138,6 +176,16 @@ public class LogFile {
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** @return whether tid has begun, or logged updates, and not committed or aborted since */
+    public synchronized boolean isLogged(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
+    /** @return whether any transaction has begun, or logged updates, and not committed or aborted since */
+    public synchronized boolean hasLoggedTransactions() {
+        return !tidToFirstLogRecord.isEmpty();
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
@@ -170,20 +218,152 @@ public class LogFile {
 
     /** Write a commit record to disk for the specified tid,
         and force the log to disk.
+        <p>
+        The log is forced outside the monitor of this LogFile, so that other
+        transactions can append their own COMMIT records in the meantime.
+        Committers whose record is not on disk yet wait for the force in
+        progress, after which one of them forces the log once for all of
+        them; see {@link #setGroupCommitWait}.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
+    public void logCommit(TransactionId tid) throws IOException {
+        long commitNo;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            raf.writeInt(COMMIT_RECORD);
+            raf.writeLong(tid.getId());
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+            tidToFirstLogRecord.remove(tid.getId());
+            commitNo = ++commitsLogged;
+        }
+        awaitForced(commitNo);
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /** Returns once the log is forced up to the specified COMMIT record,
+        either by another committer or by forcing it ourselves.
+
+        @param commitNo The number of the COMMIT record, counting from 1
+    */
+    private void awaitForced(long commitNo) throws IOException {
+        long arrived;
+        long waitMicros;
+        synchronized (commitLock) {
+            committersArrived++;
+            commitLock.notifyAll();
+            while (commitsForced < commitNo && forcing) {
+                waitFor(0);
+            }
+            if (commitsForced >= commitNo) {
+                return;
+            }
+            forcing = true;
+            arrived = committersArrived;
+            waitMicros = groupCommitMicros;
+        }
+        try {
+            if (waitMicros > 0) {
+                // give the transactions that are still running a chance to
+                // join the batch, but stop waiting once they all have
+                int running;
+                synchronized (this) {
+                    running = tidToFirstLogRecord.size();
+                }
+                long deadline = System.nanoTime() + waitMicros * 1000;
+                synchronized (commitLock) {
+                    long remaining;
+                    while (committersArrived - arrived < running
+                           && (remaining = deadline - System.nanoTime()) > 0) {
+                        waitFor(remaining);
+                    }
+                }
+            }
+            FileChannel closed = null;
+            while (true) {
+                long target;
+                FileChannel channel;
+                synchronized (this) {
+                    target = commitsLogged;
+                    channel = raf.getChannel();
+                }
+                try {
+                    channel.force(true);
+                } catch (ClosedChannelException e) {
+                    if (channel == closed) {
+                        throw e;
+                    }
+                    // the log may have been truncated meanwhile, which
+                    // forced it; force the new file too
+                    closed = channel;
+                    continue;
+                }
+                forceCount.incrementAndGet();
+                forced(target);
+                break;
+            }
+        } finally {
+            synchronized (commitLock) {
+                forcing = false;
+                commitLock.notifyAll();
+            }
+        }
+    }
+
+    /** Waits on commitLock, which the caller holds, for at most the
+        specified number of nanoseconds, or indefinitely if it is 0. */
+    private void waitFor(long nanos) throws IOException {
+        try {
+            commitLock.wait(nanos / 1000000, (int) (nanos % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for the log to be forced");
+        }
+    }
+
+    /** Records that the log is on disk up to the specified COMMIT record,
+        and wakes up the committers waiting for it. */
+    private void forced(long commitNo) {
+        synchronized (commitLock) {
+            if (commitNo > commitsForced) {
+                commitsForced = commitNo;
+                commitLock.notifyAll();
+            }
+        }
+    }
+
+    /** Sets how long a committer that forces the log on behalf of others
+        waits first for the transactions that are still running to commit
+        too, so that they share its force.  The wait ends early once all of
+        them have appended their COMMIT records.  With the default of 0, a
+        force covers the commits that arrived while the previous one was in
+        progress.
+
+        @param micros The longest wait, in microseconds
+    */
+    public void setGroupCommitWait(long micros) {
+        if (micros < 0) {
+            throw new IllegalArgumentException("negative group commit wait " + micros);
+        }
+        synchronized (commitLock) {
+            groupCommitMicros = micros;
+        }
+    }
+
+    /** @return the longest time, in microseconds, a commit waits for others
+        to share its force of the log */
+    public long getGroupCommitWait() {
+        synchronized (commitLock) {
+            return groupCommitMicros;
+        }
+    }
+
+    /** @return the number of times the log was forced to disk */
+    public long getForceCount() {
+        return forceCount.get();
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -207,6 +387,8 @@ public class LogFile {
            after page data
            start offset
         */
+        // transactions that did not log a BEGIN record start with their first update
+        tidToFirstLogRecord.putIfAbsent(tid.getId(), currentOffset);
         raf.writeInt(UPDATE_RECORD);
         raf.writeLong(tid.getId());
 
@@ -218,6 +400,58 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write a ROW_INSERT record for a tuple that tid inserted in
+        row-locking mode.  Must be written before any page holding the
+        tuple is.
+        @param tid The inserting transaction
+        @param rid The record id the tuple was given
+    */
+    public void logRowInsert(TransactionId tid, RecordId rid) throws IOException {
+        logRowChange(ROW_INSERT_RECORD, tid, rid);
+    }
+
+    /** Write a ROW_DELETE record for a tuple that tid deleted in
+        row-locking mode, before its COMMIT record.
+        @param tid The deleting transaction
+        @param rid The record id of the tuple
+    */
+    public void logRowDelete(TransactionId tid, RecordId rid) throws IOException {
+        logRowChange(ROW_DELETE_RECORD, tid, rid);
+    }
+
+    /** Write a ROW_UNDO record for a tuple inserted by tid, which is
+        aborting, before the tuple is removed.
+        @param tid The aborting transaction
+        @param rid The record id of the tuple
+    */
+    public void logRowUndo(TransactionId tid, RecordId rid) throws IOException {
+        logRowChange(ROW_UNDO_RECORD, tid, rid);
+    }
+
+    private synchronized void logRowChange(int type, TransactionId tid, RecordId rid)
+        throws IOException {
+        preAppend();
+        tidToFirstLogRecord.putIfAbsent(tid.getId(), currentOffset);
+        raf.writeInt(type);
+        raf.writeLong(tid.getId());
+        writeRecordId(raf, rid);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+    }
+
+    static void writeRecordId(RandomAccessFile raf, RecordId rid) throws IOException {
+        PageId pid = rid.getPageId();
+        raf.writeInt(pid.getTableId());
+        raf.writeInt(pid.pageNumber());
+        raf.writeInt(rid.tupleno());
+    }
+
+    static RecordId readRecordId(RandomAccessFile raf) throws IOException {
+        int tableId = raf.readInt();
+        int pgNo = raf.readInt();
+        return new RecordId(new HeapPageId(tableId, pgNo), raf.readInt());
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
@@ -265,17 +499,43 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class) {
+                    pageConst = c;
+                    break;
+                }
+            }
+            Constructor<?> keyedConst = null;
+            if (pageConst == null) {
+                // B+ tree pages also take the key field of their file
+                for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                    Class<?>[] params = c.getParameterTypes();
+                    if (params.length == 3 && params[1] == byte[].class && params[2] == int.class) {
+                        keyedConst = c;
+                        break;
+                    }
+                }
+                if (keyedConst == null) {
+                    throw new IOException("no (PageId, byte[]) constructor for " + pageClassName);
+                }
+            }
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+            raf.readFully(pageData); //read before image
+
+            Object[] pageArgs;
+            if (pageConst != null) {
+                pageArgs = new Object[] { pid, pageData };
+            } else {
+                pageConst = keyedConst;
+                BTreeFile file = (BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+                pageArgs = new Object[] { pid, pageData, file.keyField() };
+            }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -323,11 +583,17 @@ public class LogFile {
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
+                force();
+            }
+            // not under this monitor: pages changed in row-locking mode are
+            // written under their own monitors, which inserts hold while
+            // logging ROW_INSERT records
+            Database.getBufferPool().flushAllPages();
+            synchronized (this) {
                 long startCpOffset, endCpOffset;
+                // flushing logs the pages, which may add transactions
                 Set<Long> keys = tidToFirstLogRecord.keySet();
                 Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
@@ -355,6 +621,12 @@ public class LogFile {
         }
 
         logTruncate();
+        try {
+            Database.getBufferPool().saveSnapshot();
+        } catch (IOException e) {
+            // only the warm-up after a restart suffers
+            e.printStackTrace();
+        }
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
@@ -399,12 +671,20 @@ public class LogFile {
         //have to rewrite log records since offsets are different after truncation
         while (true) {
             try {
+                long oldStart = raf.getFilePointer();
                 int type = raf.readInt();
                 long record_tid = raf.readLong();
                 long newStart = logNew.getFilePointer();
 
                 Debug.log("NEW START = " + newStart);
 
+                // the first record of a transaction may be a BEGIN record
+                // or, for transactions that did not log one, an update
+                Long firstLogRecord = tidToFirstLogRecord.get(record_tid);
+                if (firstLogRecord != null && firstLogRecord == oldStart) {
+                    tidToFirstLogRecord.put(record_tid, newStart);
+                }
+
                 logNew.writeInt(type);
                 logNew.writeLong(record_tid);
 
@@ -416,6 +696,15 @@ public class LogFile {
                     writePageData(logNew, before);
                     writePageData(logNew, after);
                     break;
+                case CLR_RECORD:
+                    writePageData(logNew, readPageData(raf));
+                    logNew.writeLong((raf.readLong() - minLogRecord) + LONG_SIZE);
+                    break;
+                case ROW_INSERT_RECORD:
+                case ROW_DELETE_RECORD:
+                case ROW_UNDO_RECORD:
+                    writeRecordId(logNew, readRecordId(raf));
+                    break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
                     logNew.writeInt(numXactions);
@@ -426,9 +715,6 @@ public class LogFile {
                         logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
                     }
                     break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
                 }
 
                 //all xactions finish with a pointer
@@ -442,6 +728,8 @@ public class LogFile {
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
+        logNew.getChannel().force(true);
+        logNew.close();
         raf.close();
         logFile.delete();
         newFile.renameTo(logFile);
@@ -467,10 +755,152 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null) {
+                    throw new NoSuchElementException("transaction " + tid.getId() + " is not in the log");
+                }
+                Map<Long, Long> losers = new HashMap<Long, Long>();
+                losers.put(tid.getId(), firstRecord);
+                undo(losers);
             }
         }
     }
 
+    /**
+     * Undoes the updates of the specified transactions, the most recent
+     * first, writing a CLR for each update that is undone. Updates that
+     * CLRs show to be undone already are skipped. Their row inserts that
+     * no ROW_UNDO record follows are removed too, with a ROW_UNDO record
+     * each. The CLRs are forced before the pages are written, and the
+     * pages forced before this returns, so that the caller can log the
+     * transactions' ABORT records. Cached versions of the pages are
+     * discarded.
+     *
+     * @param losers the ids of the transactions to undo, and the offsets of
+     *   their first log records
+     */
+    private void undo(Map<Long, Long> losers) throws IOException {
+        long stop = Collections.min(losers.values());
+        // offset below which each transaction's updates are still to be undone
+        Map<Long, Long> undoNext = new HashMap<Long, Long>();
+        List<Long> undone = new ArrayList<Long>();
+        List<Long> undoneTids = new ArrayList<Long>();
+        List<Page> images = new ArrayList<Page>();
+        Set<RecordId> rowsUndone = new HashSet<RecordId>();
+        List<RecordId> rows = new ArrayList<RecordId>();
+        List<Long> rowTids = new ArrayList<Long>();
+
+        // scan backwards, following the offset each record ends with
+        long end = currentOffset;
+        while (end > stop) {
+            raf.seek(end - LONG_SIZE);
+            long start = raf.readLong();
+            raf.seek(start);
+            int type = raf.readInt();
+            long recordTid = raf.readLong();
+            if (losers.containsKey(recordTid)) {
+                Long bound = undoNext.get(recordTid);
+                if (type == UPDATE_RECORD && (bound == null || start < bound)) {
+                    Page before = readPageData(raf);
+                    undone.add(start);
+                    undoneTids.add(recordTid);
+                    images.add(before);
+                    undoNext.put(recordTid, start);
+                } else if (type == CLR_RECORD) {
+                    readPageData(raf);
+                    long next = raf.readLong();
+                    if (bound == null || next < bound) {
+                        undoNext.put(recordTid, next);
+                    }
+                } else if (type == ROW_UNDO_RECORD) {
+                    rowsUndone.add(readRecordId(raf));
+                } else if (type == ROW_INSERT_RECORD) {
+                    // the tuple stays locked until it is undone, so its slot is not reused before
+                    RecordId rid = readRecordId(raf);
+                    if (!rowsUndone.contains(rid)) {
+                        rows.add(rid);
+                        rowTids.add(recordTid);
+                    }
+                }
+            }
+            end = start;
+        }
+        raf.seek(currentOffset);
+
+        // write-ahead: the CLRs reach the log before the pages reach disk
+        Map<PageId, Page> restored = new LinkedHashMap<PageId, Page>();
+        for (int i = 0; i < images.size(); i++) {
+            Page image = images.get(i);
+            raf.writeInt(CLR_RECORD);
+            raf.writeLong(undoneTids.get(i));
+            writePageData(raf, image);
+            raf.writeLong(undone.get(i));
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+            totalRecords++;
+            // the earliest image of a page, which comes last, is the one to keep
+            restored.put(image.getId(), image);
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            raf.writeInt(ROW_UNDO_RECORD);
+            raf.writeLong(rowTids.get(i));
+            writeRecordId(raf, rows.get(i));
+            raf.writeLong(currentOffset);
+            currentOffset = raf.getFilePointer();
+            totalRecords++;
+        }
+        if (images.isEmpty() && rows.isEmpty()) {
+            return;
+        }
+        force();
+        clearSlots(rows, restored);
+        writePages(restored.values());
+    }
+
+    /**
+     * Empties the specified slots of heap file pages, where they are used,
+     * adding the pages to the specified ones to write. Pages that are not
+     * among them already are read from disk.
+     */
+    private void clearSlots(Collection<RecordId> rids, Map<PageId, Page> pages) throws IOException {
+        for (RecordId rid : rids) {
+            PageId pid = rid.getPageId();
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            HeapFilePage page = (HeapFilePage) pages.get(pid);
+            if (page == null) {
+                page = (HeapFilePage) file.readPage(pid);
+                pages.put(pid, page);
+            }
+            if (page.isSlotUsed(rid.tupleno())) {
+                Tuple t = new Tuple(file.getTupleDesc());
+                t.setRecordId(rid);
+                try {
+                    page.deleteTuple(t);
+                } catch (DbException e) {
+                    throw new IOException("cannot empty slot " + rid.tupleno() + " of " + pid, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes page images straight to their files, discarding cached
+     * versions, and forces the files.
+     */
+    private void writePages(Collection<Page> pages) throws IOException {
+        Set<DbFile> files = new HashSet<DbFile>();
+        for (Page page : pages) {
+            PageId pid = page.getId();
+            Database.getBufferPool().discardPage(pid);
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            file.writePage(page);
+            files.add(file);
+        }
+        for (DbFile file : files) {
+            file.force();
+        }
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
@@ -488,12 +918,163 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+
+        Recovery follows ARIES, with whole page images: analysis finds
+        the loser transactions, those active at the last checkpoint or
+        begun since that never committed or aborted; redo repeats
+        history from the checkpoint, installing the images of all
+        UPDATE and CLR records; undo rolls the losers back with CLRs,
+        so that recovering again after a crash during recovery does not
+        undo anything twice, and logs their ABORT records. Only the log
+        since the checkpoint is redone, and only the records of the
+        losers before it are read again to undo them.
+        <p>
+        Row changes are redone by emptying every slot whose last change
+        since the checkpoint leaves it empty: a committed delete, an undo,
+        or the insert of a transaction that did not commit. The slots
+        whose last change is a committed insert need nothing, as inserts
+        reach disk before their COMMIT record.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                tidToFirstLogRecord.clear();
+                if (raf.length() < LONG_SIZE) {
+                    // no log yet
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                    currentOffset = raf.getFilePointer();
+                    return;
+                }
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+                currentOffset = raf.length();
+
+                // analysis and redo: the checkpoint flushed all pages, so
+                // history is repeated from there, and the transactions active
+                // at its time or begun since without completing are the losers
+                Map<Long, Long> losers = new HashMap<Long, Long>();
+                Map<PageId, Page> redone = new HashMap<PageId, Page>();
+                // the last row change of each slot, with its transaction
+                Map<RecordId, long[]> rowChanges = new HashMap<RecordId, long[]>();
+                Set<Long> committed = new HashSet<Long>();
+                raf.seek(cpLoc == NO_CHECKPOINT_ID ? LONG_SIZE : cpLoc);
+                while (raf.getFilePointer() < currentOffset) {
+                    long start = raf.getFilePointer();
+                    int type;
+                    long recordTid;
+                    Page image = null;
+                    RecordId rid = null;
+                    Map<Long, Long> active = new HashMap<Long, Long>();
+                    try {
+                        type = raf.readInt();
+                        recordTid = raf.readLong();
+                        switch (type) {
+                        case CHECKPOINT_RECORD:
+                            int numXactions = raf.readInt();
+                            while (numXactions-- > 0) {
+                                long xid = raf.readLong();
+                                active.put(xid, raf.readLong());
+                            }
+                            break;
+                        case UPDATE_RECORD:
+                            readPageData(raf);
+                            image = readPageData(raf);
+                            break;
+                        case CLR_RECORD:
+                            image = readPageData(raf);
+                            raf.readLong();
+                            break;
+                        case ROW_INSERT_RECORD:
+                        case ROW_DELETE_RECORD:
+                        case ROW_UNDO_RECORD:
+                            rid = readRecordId(raf);
+                            break;
+                        }
+                        if (raf.readLong() != start) {
+                            throw new EOFException();
+                        }
+                    } catch (EOFException e) {
+                        // a record torn by the crash; it was never forced, so nothing depends on it
+                        raf.setLength(start);
+                        currentOffset = start;
+                        break;
+                    }
+                    switch (type) {
+                    case CHECKPOINT_RECORD:
+                        losers.putAll(active);
+                        break;
+                    case BEGIN_RECORD:
+                        losers.put(recordTid, start);
+                        break;
+                    case COMMIT_RECORD:
+                        committed.add(recordTid);
+                        // fall through
+                    case ABORT_RECORD:
+                        losers.remove(recordTid);
+                        break;
+                    case UPDATE_RECORD:
+                        if (!losers.containsKey(recordTid)) {
+                            losers.put(recordTid, start);
+                        }
+                        // fall through
+                    case CLR_RECORD:
+                        redone.put(image.getId(), image);
+                        break;
+                    case ROW_INSERT_RECORD:
+                    case ROW_DELETE_RECORD:
+                        if (!losers.containsKey(recordTid)) {
+                            losers.put(recordTid, start);
+                        }
+                        // fall through
+                    case ROW_UNDO_RECORD:
+                        rowChanges.put(rid, new long[] { type, recordTid });
+                        break;
+                    }
+                }
+                // only the last image of each page needs writing
+                writePages(redone.values());
+
+                List<RecordId> emptied = new ArrayList<RecordId>();
+                for (Map.Entry<RecordId, long[]> change : rowChanges.entrySet()) {
+                    boolean done = committed.contains(change.getValue()[1]);
+                    switch ((int) change.getValue()[0]) {
+                    case ROW_INSERT_RECORD:
+                        if (!done) {
+                            emptied.add(change.getKey());
+                        }
+                        break;
+                    case ROW_DELETE_RECORD:
+                        // deletes are only applied once committed
+                        if (done) {
+                            emptied.add(change.getKey());
+                        }
+                        break;
+                    case ROW_UNDO_RECORD:
+                        emptied.add(change.getKey());
+                        break;
+                    }
+                }
+                Map<PageId, Page> cleared = new HashMap<PageId, Page>();
+                clearSlots(emptied, cleared);
+                writePages(cleared.values());
+
+                // undo, and finish the losers off as aborted
+                if (!losers.isEmpty()) {
+                    raf.seek(currentOffset);
+                    undo(losers);
+                    for (Long loser : losers.keySet()) {
+                        raf.writeInt(ABORT_RECORD);
+                        raf.writeLong(loser);
+                        raf.writeLong(currentOffset);
+                        currentOffset = raf.getFilePointer();
+                        totalRecords++;
+                    }
+                    force();
+                }
+                raf.seek(currentOffset);
             }
          }
     }
@@ -505,6 +1086,8 @@ public class LogFile {
 
     public  synchronized void force() throws IOException {
         raf.getChannel().force(true);
+        forceCount.incrementAndGet();
+        forced(commitsLogged);
     }
 
 }
@@ -365,13 +365,14 @@ public class Parser {
                     IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (td.getFieldType(i) != Type.STRING_TYPE
+                            && td.getFieldType(i) != Type.VARCHAR_TYPE) {
                         throw new ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
                     }
                     StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
+                            Type.STRING_LEN, td.getFieldType(i));
                     t.setField(i, f);
                 } else {
                     throw new ParsingException(
@@ -581,7 +582,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "stats" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -599,6 +600,11 @@ public class Parser {
     static final int SLEEP_TIME = 5000;
 
     protected void shutdown() {
+        try {
+            Database.getBufferPool().saveSnapshot();
+        } catch (IOException e) {
+            System.out.println("Unable to save the buffer pool snapshot: " + e.getMessage());
+        }
         System.out.println("Bye");
     }
 
@@ -609,6 +615,18 @@ public class Parser {
         Database.getCatalog().loadSchema(argv[0]);
         TableStats.computeStatistics();
 
+        // reload the pages that were cached when the database last shut down
+        File snapshot = new File(argv[0] + ".bufferpool");
+        Database.getBufferPool().setSnapshotFile(snapshot);
+        if (snapshot.exists()) {
+            try {
+                int pages = Database.getBufferPool().loadSnapshot(snapshot);
+                System.out.println("Warmed up the buffer pool with " + pages + " pages");
+            } catch (IOException e) {
+                System.out.println("Unable to load the buffer pool snapshot: " + e.getMessage());
+            }
+        }
+
         String queryFile = null;
 
         if (argv.length > 1) {
@@ -681,6 +699,13 @@ public class Parser {
                         quit = true;
                         break;
                     }
+                    if (cmd.equalsIgnoreCase("stats;")) {
+                        // buffer pool counters, for sizing the pool
+                        Database.getBufferPool().printStats(System.out);
+                        line = line.substring(split + 1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
 
                     long startTime = System.currentTimeMillis();
                     processNextStatement(new ByteArrayInputStream(
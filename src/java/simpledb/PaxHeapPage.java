@@ -0,0 +1,166 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * PaxHeapPage is a HeapPage whose tuples are stored column by column
+ * (the PAX layout). The header and the number of slots are exactly those of
+ * a {@link HeapPage}, but the body holds one region per field, in schema
+ * order, and each region holds that field for every slot:
+ * <pre>
+ *   header | field 0 of slots 0..n-1 | field 1 of slots 0..n-1 | ...
+ * </pre>
+ * Tuples read from a PaxHeapPage decode a field only the first time it is
+ * asked for, so operators that look at a few columns of a wide table only
+ * parse those columns. RecordIds are the same as for a HeapPage.
+ *
+ * @see HeapPageFormat#PAX
+ */
+public class PaxHeapPage extends HeapPage {
+
+    /** Offset of the region of each field within the page */
+    private final int[] columnOffset;
+
+    /**
+     * Create a PaxHeapPage from a set of bytes of data read from disk.
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    PaxHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+    }
+
+    /**
+     * Create a PaxHeapPage with the specified schema over the page image
+     * held in the specified buffer. Images that are not backed by an array,
+     * such as views of a memory-mapped file, are copied, since fields may be
+     * decoded long after the page was read.
+     */
+    PaxHeapPage(HeapPageId id, TupleDesc td, ByteBuffer data) throws IOException {
+        super(id, td, data.hasArray() ? data : copy(data));
+        columnOffset = new int[td.numFields()];
+        int offset = header.length;
+        for (int j = 0; j < columnOffset.length; j++) {
+            columnOffset[j] = offset;
+            offset += numSlots * td.getFieldType(j).getLen();
+        }
+    }
+
+    private static ByteBuffer copy(ByteBuffer data) throws IOException {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        if (data.remaining() < page.length) {
+            throw new IOException("page image is shorter than a page");
+        }
+        data.duplicate().get(page);
+        return ByteBuffer.wrap(page);
+    }
+
+    @Override
+    PaxHeapPage createPage(byte[] data) throws IOException {
+        return new PaxHeapPage(pid, td, ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public PaxHeapPage getBeforeImage() {
+        return (PaxHeapPage) super.getBeforeImage();
+    }
+
+    /** @return the offset of the specified field of the specified slot */
+    private int fieldOffset(int slotId, int field) {
+        return columnOffset[field] + slotId * td.getFieldType(field).getLen();
+    }
+
+    /**
+     * Decode one field of the tuple stored in the specified slot of the raw
+     * page image.
+     */
+    Field readField(int slotId, int field) throws NoSuchElementException {
+        ByteBuffer buf = data.duplicate();
+        buf.position(fieldOffset(slotId, field));
+        try {
+            return td.getFieldType(field).parse(new DataInputStream(new ByteBufferInputStream(buf)));
+        } catch (ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    /**
+     * Returns a tuple whose fields are decoded from the raw page image on
+     * first access.
+     */
+    @Override
+    Tuple readTuple(int slotId) {
+        ColumnTuple t = new ColumnTuple(this, slotId);
+        t.setRecordId(new RecordId(pid, slotId));
+        return t;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page in the
+     * PAX layout. Fields of slots that are unchanged since the page was read
+     * are copied from the raw image.
+     */
+    @Override
+    public byte[] getPageData() {
+        byte[] page = getRawData();
+        System.arraycopy(header, 0, page, 0, header.length);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i) && tuples[i] == null) {
+                continue;
+            }
+            for (int j = 0; j < td.numFields(); j++) {
+                int len = td.getFieldType(j).getLen();
+                if (!isSlotUsed(i)) {
+                    Arrays.fill(page, fieldOffset(i, j), fieldOffset(i, j) + len, (byte) 0);
+                    continue;
+                }
+                baos.reset();
+                try {
+                    tuples[i].getField(j).serialize(dos);
+                    dos.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                System.arraycopy(baos.toByteArray(), 0, page, fieldOffset(i, j), len);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * A tuple of a PaxHeapPage that decodes each field the first time it
+     * is read.
+     */
+    private static final class ColumnTuple extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient PaxHeapPage page;
+        private final int slotId;
+
+        ColumnTuple(PaxHeapPage page, int slotId) {
+            super(page.td);
+            this.page = page;
+            this.slotId = slotId;
+        }
+
+        @Override
+        public Field getField(int i) {
+            Field f = super.getField(i);
+            if (f == null && page != null && i >= 0 && i < page.td.numFields()) {
+                f = page.readField(slotId, i);
+                setField(i, f);
+            }
+            return f;
+        }
+    }
+}
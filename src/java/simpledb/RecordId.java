@@ -55,7 +55,7 @@ public class RecordId implements Serializable {
         //throw new UnsupportedOperationException("implement this");
         if(o instanceof RecordId){
             RecordId recordId = (RecordId) o;
-            if(this.pid==recordId.getPageId()&&this.tupleNo==recordId.tupleno()){
+            if(this.pid.equals(recordId.getPageId())&&this.tupleNo==recordId.tupleno()){
                 return true;
             }
         }
@@ -7,7 +7,7 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
-            if (args.length<3 || args.length>5){
+            if (args.length<3 || args.length>7){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
             }
@@ -16,6 +16,8 @@ public class SimpleDb {
             int numOfAttributes=Integer.parseInt(args[2]);
             Type[] ts = new Type[numOfAttributes];
             char fieldSeparator=',';
+            HeapPageFormat format = null;
+            boolean compressed = false;
 
             if (args.length == 3) 
                 for (int i=0;i<numOfAttributes;i++)
@@ -30,21 +32,35 @@ public class SimpleDb {
                 }
                 int index=0;
                 for (String s: typeStringAr) {
-                        if (s.toLowerCase().equals("int"))
-                            ts[index++]=Type.INT_TYPE;
-                        else if (s.toLowerCase().equals("string"))
-                                ts[index++]=Type.STRING_TYPE;
-                            else {
-                                System.err.println("Unknown type " + s);
-                                return;
-                            }
+                        ts[index] = Type.forName(s);
+                        if (ts[index++] == null) {
+                            System.err.println("Unknown type " + s);
+                            return;
+                        }
                 }
-                if (args.length==5)
+                if (args.length>=5)
                     fieldSeparator=args[4].charAt(0);
+                // optional page format and/or "compressed"
+                for (int i = 5; i < args.length; i++) {
+                    if (args[i].equalsIgnoreCase("compressed"))
+                        compressed = true;
+                    else if (HeapPageFormat.forName(args[i]) != null)
+                        format = HeapPageFormat.forName(args[i]);
+                    else {
+                        System.err.println("Unknown table option " + args[i]);
+                        return;
+                    }
+                }
             }
+            if (format == null)
+                format = HeapPageFormat.defaultFor(ts);
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
-                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator);
+            if (compressed)
+                HeapFileEncoder.convertCompressed(sourceTxtFile,targetDatFile,
+                        numOfAttributes,ts,fieldSeparator,format);
+            else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+                        BufferPool.getPageSize(),numOfAttributes,ts,fieldSeparator,format);
 
         } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -0,0 +1,387 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * SlottedHeapPage is a page of a HeapFile that stores variable-length
+ * records, so that {@link Type#VARCHAR_TYPE} values only take as many bytes
+ * as they have characters. The page is laid out as:
+ * <pre>
+ *   int   number of entries in the slot directory
+ *   int   offset of the start of the record area (0 on a new page)
+ *   slot directory, one (unsigned short offset, unsigned short length)
+ *         entry per slot; offset 0 marks an empty slot
+ *   free space
+ *   records, growing down from the end of the page
+ * </pre>
+ * Each record is the packed form of the tuple's fields (see
+ * {@link Type#serializePacked}). A tuple keeps its slot number, and hence
+ * its RecordId, for as long as it stays on the page; records are moved
+ * together when the free space gets fragmented by deletes. An all-zero
+ * page is a valid empty page, and pages can be at most 64KB.
+ *
+ * @see HeapPageFormat#SLOTTED
+ */
+public class SlottedHeapPage implements HeapFilePage {
+
+    /** Bytes taken by the slot count and the record area offset */
+    static final int HEADER_SIZE = 8;
+    /** Bytes taken by one slot directory entry */
+    static final int SLOT_SIZE = 4;
+    /** Largest page whose offsets fit in the slot directory */
+    static final int MAX_PAGE_SIZE = 1 << 16;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    /** Current image of the page; modifications are applied to it directly */
+    final byte[] page;
+    private final ByteBuffer buf;
+    /** Largest packed record a tuple of this table can have */
+    private final int maxRecordSize;
+
+    /** Number of entries in the slot directory */
+    private int numSlots;
+    /** Number of slots that hold a tuple */
+    private int numUsed;
+    /** Offset of the first byte of the record area */
+    private int recordStart;
+    /** Total length of the records of used slots */
+    private int liveBytes;
+
+    byte[] oldData;
+    private final Byte oldDataLock = (byte) 0;
+
+    boolean dirty;
+    TransactionId tid;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     * The TupleDesc of the page is looked up in the catalog.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedHeapPage from the page image held in the specified
+     * buffer, starting at its current position. The image is copied, so the
+     * buffer may be a read-only view of a memory-mapped file.
+     */
+    SlottedHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), copyPage(data));
+    }
+
+    /**
+     * Create a SlottedHeapPage over the specified image, which is used
+     * without copying and whose length is the page size. Allows pages to be
+     * built for tables that are not in the catalog, e.g. by HeapFileEncoder.
+     */
+    SlottedHeapPage(HeapPageId id, TupleDesc td, byte[] page) throws IOException {
+        if (page.length > MAX_PAGE_SIZE) {
+            throw new IOException("slotted pages cannot be larger than " + MAX_PAGE_SIZE + " bytes");
+        }
+        this.pid = id;
+        this.td = td;
+        this.page = page;
+        this.buf = ByteBuffer.wrap(page);
+        int max = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            max += td.getFieldType(i).getLen();
+        }
+        this.maxRecordSize = max;
+
+        numSlots = buf.getInt(0);
+        recordStart = buf.getInt(4);
+        if (recordStart == 0) {
+            recordStart = page.length;
+        }
+        if (numSlots < 0 || recordStart > page.length || HEADER_SIZE + (long) numSlots * SLOT_SIZE > recordStart) {
+            throw new IOException("corrupt slotted page " + id.pageNumber());
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                numUsed++;
+                liveBytes += slotLength(i);
+            }
+        }
+    }
+
+    private static byte[] copyPage(ByteBuffer data) throws IOException {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        if (data.remaining() < page.length) {
+            throw new IOException("page image is shorter than a page");
+        }
+        data.duplicate().get(page);
+        return page;
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    private int slotOffset(int i) {
+        return buf.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xFFFF;
+    }
+
+    private int slotLength(int i) {
+        return buf.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xFFFF;
+    }
+
+    private void setSlot(int i, int offset, int length) {
+        buf.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) offset);
+        buf.putShort(HEADER_SIZE + i * SLOT_SIZE + 2, (short) length);
+    }
+
+    private void writeHeader() {
+        buf.putInt(0, numSlots);
+        buf.putInt(4, recordStart);
+    }
+
+    /** @return bytes not taken by the header, the directory or live records */
+    private int freeBytes() {
+        return page.length - HEADER_SIZE - numSlots * SLOT_SIZE - liveBytes;
+    }
+
+    /** @return the size of the packed record of t */
+    private int recordSize(Tuple t) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            size += td.getFieldType(i).getPackedLen(t.getField(i));
+        }
+        return size;
+    }
+
+    /** @return bytes of free space needed to add a record of the given size */
+    private int spaceNeeded(int recordSize) {
+        return numUsed < numSlots ? recordSize : recordSize + SLOT_SIZE;
+    }
+
+    /**
+     * Returns the tuple in the specified used slot, decoded from its record.
+     */
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
+        DataInputStream dis = new DataInputStream(
+                new ByteArrayInputStream(page, slotOffset(slotId), slotLength(slotId)));
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, td.getFieldType(j).parsePacked(dis));
+            }
+        } catch (ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        return t;
+    }
+
+    /**
+     * Moves all live records to the end of the page so that the free space
+     * between the directory and the records is contiguous.
+     */
+    private void compact() {
+        byte[] records = new byte[page.length];
+        int end = page.length;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i)) {
+                int len = slotLength(i);
+                end -= len;
+                System.arraycopy(page, slotOffset(i), records, end, len);
+                setSlot(i, end, len);
+            }
+        }
+        System.arraycopy(records, end, page, end, page.length - end);
+        recordStart = end;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * can be passed back to the constructor to recreate it.
+     */
+    public byte[] getPageData() {
+        return page.clone();
+    }
+
+    /** Return a view of this page before it was modified
+     -- used by recovery */
+    public SlottedHeapPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            if (oldDataRef == null) {
+                oldDataRef = page;
+            }
+            return new SlottedHeapPage(pid, td, oldDataRef.clone());
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData();
+        }
+    }
+
+    /**
+     * Remember the current image as the before image, unless one has
+     * already been set. Called before the page is first modified.
+     */
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = page.clone();
+        }
+    }
+
+    /**
+     * Deletes the specified tuple from the page, freeing its slot and the
+     * space of its record.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId recordId = t.getRecordId();
+        if (recordId == null || !pid.equals(recordId.getPageId()) || !isSlotUsed(recordId.tupleno())) {
+            throw new DbException("tuple is not in this page");
+        }
+        int slotId = recordId.tupleno();
+        captureBeforeImage();
+        liveBytes -= slotLength(slotId);
+        setSlot(slotId, 0, 0);
+        numUsed--;
+        // no tuple refers to empty slots at the end of the directory
+        while (numSlots > 0 && !isSlotUsed(numSlots - 1)) {
+            numSlots--;
+        }
+        writeHeader();
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the lowest empty slot, and
+     * sets its RecordId.
+     * @throws DbException if the tuple does not fit or its TupleDesc does
+     *         not match the page's
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        int size = recordSize(t);
+        if (spaceNeeded(size) > freeBytes()) {
+            throw new DbException("not enough space on this page");
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(size);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                td.getFieldType(j).serializePacked(t.getField(j), dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new DbException("could not encode tuple: " + e.getMessage());
+        }
+        byte[] record = baos.toByteArray();
+
+        captureBeforeImage();
+        int slotId = 0;
+        while (slotId < numSlots && isSlotUsed(slotId)) {
+            slotId++;
+        }
+        int slotsAfter = Math.max(numSlots, slotId + 1);
+        if (recordStart - record.length < HEADER_SIZE + slotsAfter * SLOT_SIZE) {
+            compact();
+        }
+        recordStart -= record.length;
+        System.arraycopy(record, 0, page, recordStart, record.length);
+        numSlots = slotsAfter;
+        setSlot(slotId, recordStart, record.length);
+        numUsed++;
+        liveBytes += record.length;
+        writeHeader();
+        t.setRecordId(new RecordId(pid, slotId));
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirty ? tid : null;
+    }
+
+    /**
+     * Returns the number of tuples of the largest possible size that can
+     * still be added to this page. Smaller tuples may fit even when this is
+     * 0; see {@link #hasRoomFor}.
+     */
+    public int getNumEmptySlots() {
+        int free = freeBytes();
+        int reused = Math.min(numSlots - numUsed, free / maxRecordSize);
+        free -= reused * maxRecordSize;
+        return reused + free / (maxRecordSize + SLOT_SIZE);
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return t.getTupleDesc().equals(td) && spaceNeeded(recordSize(t)) <= freeBytes();
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && slotOffset(i) != 0;
+    }
+
+    /** @return the first used slot at or after from, or numSlots if there is none */
+    private int nextUsedSlot(int from) {
+        while (from < numSlots && !isSlotUsed(from)) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int next = nextUsedSlot(0);
+
+            public boolean hasNext() {
+                next = nextUsedSlot(next);
+                return next < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return readTuple(next++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
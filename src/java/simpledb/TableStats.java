@@ -80,6 +80,10 @@ public class TableStats {
      * 表中元组总数
      */
     private int totalTuples;
+    /**
+     * 页面大小与磁盘上实际占用字节数之比, 未压缩的表为1
+     */
+    private double compressionRatio;
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -104,6 +108,7 @@ public class TableStats {
         this.totalTuples = 0;
         DbFile dbFile = Database.getCatalog().getDatabaseFile(tableid);
         this.pageNum = ((HeapFile) dbFile).numPages();
+        this.compressionRatio = ((HeapFile) dbFile).getCompressionRatio();
         this.tupleDesc = dbFile.getTupleDesc();
         this.intHistogramMap = new ConcurrentHashMap<>();
         this.stringHistogramMap = new ConcurrentHashMap<>();
@@ -179,13 +184,23 @@ public class TableStats {
      * if the last page of the table only has one tuple on it, it's just as
      * expensive to read as a full page. (Most real hard drives can't
      * efficiently address regions smaller than a page at a time.)
+     * Compressed tables read proportionally fewer bytes per page.
      *
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
         // some code goes here
         // 因为全表扫描了两次,所以需要*2
-        return pageNum * ioCostPerPage * 2;
+        return pageNum * ioCostPerPage * 2 / compressionRatio;
+    }
+
+    /**
+     * @return the compression ratio of the table's file, 1 if it is not
+     *   compressed
+     * @see HeapFile#getCompressionRatio()
+     */
+    public double getCompressionRatio() {
+        return compressionRatio;
     }
 
     /**
@@ -97,7 +97,7 @@ public class Tuple implements Serializable {
         // some code goes here
         StringBuilder builder = new StringBuilder();
         for(int i=0;i<this.fields.length;i++){
-            builder.append(this.fields[i].toString()+" ");
+            builder.append(getField(i).toString()+" ");
         }
         builder.append("\n");
         return builder.toString();
@@ -111,7 +111,11 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        return Arrays.asList(this.fields).iterator();
+        Field[] values = new Field[this.fields.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = getField(i);
+        }
+        return Arrays.asList(values).iterator();
     }
 
     /**
@@ -204,7 +204,7 @@ public class TupleDesc implements Serializable {
      */
     public boolean equals(Object o) {
         // some code goes here
-        if(!o.getClass().isInstance(TupleDesc.class)){
+        if(!(o instanceof TupleDesc)){
             return false;
         }
         TupleDesc tupleDesc = (TupleDesc) o;
@@ -219,13 +219,17 @@ public class TupleDesc implements Serializable {
                 return false;
             }
         }
-        return false;
+        return true;
     }
 
     public int hashCode() {
         // If you want to use TupleDesc as keys for HashMap, implement this so
         // that equal objects have equals hashCode() results
-        throw new UnsupportedOperationException("unimplemented");
+        int hash = 1;
+        for (TDItem item : items) {
+            hash = 31 * hash + item.fieldType.hashCode();
+        }
+        return hash;
     }
 
     /**
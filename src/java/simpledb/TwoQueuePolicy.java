@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The 2Q replacement policy (Johnson and Shasha), which keeps one large
+ * sequential scan from flushing frequently used pages such as the upper
+ * levels of B+ trees.
+ * <p>
+ * New pages enter a FIFO probationary queue, A1in. Pages evicted from
+ * A1in are remembered, without their contents, in the ghost queue A1out;
+ * a page that is requested again while in A1out has proven to be reused
+ * and enters the main LRU queue, Am. A1in is drained first while it holds
+ * more than a quarter of the pool, so Am keeps the rest.
+ * <p>
+ * Requests from sequential scans never promote a page to Am, and pages
+ * that have only been read by scans are not remembered in A1out.
+ */
+public class TwoQueuePolicy implements EvictionPolicy {
+
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<>();
+    /** Pages in A1in that have only been requested by sequential scans */
+    private final Set<PageId> scanOnly = new HashSet<>();
+
+    /** Target size of A1in */
+    private int kin = 1;
+    /** Maximum size of A1out */
+    private int kout = 1;
+
+    public void setCapacity(int numPages) {
+        kin = Math.max(1, numPages / 4);
+        kout = Math.max(1, numPages / 2);
+        trimGhosts();
+    }
+
+    public void pageAdded(PageId pid, boolean sequential) {
+        if (!sequential && a1out.remove(pid)) {
+            am.add(pid);
+            return;
+        }
+        a1in.add(pid);
+        if (sequential) {
+            scanOnly.add(pid);
+        }
+    }
+
+    public void pageAccessed(PageId pid, boolean sequential) {
+        if (sequential) {
+            return;
+        }
+        if (am.remove(pid)) {
+            // move to the most recently used end
+            am.add(pid);
+        } else {
+            scanOnly.remove(pid);
+        }
+    }
+
+    public void pageRemoved(PageId pid) {
+        a1in.remove(pid);
+        scanOnly.remove(pid);
+        am.remove(pid);
+    }
+
+    public PageId evict(Filter filter) {
+        PageId victim = null;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = evictFromA1in(filter);
+        }
+        if (victim == null) {
+            victim = first(am, filter);
+            if (victim != null) {
+                am.remove(victim);
+            }
+        }
+        if (victim == null) {
+            victim = evictFromA1in(filter);
+        }
+        return victim;
+    }
+
+    private PageId evictFromA1in(Filter filter) {
+        PageId victim = first(a1in, filter);
+        if (victim != null) {
+            a1in.remove(victim);
+            if (!scanOnly.remove(victim)) {
+                a1out.add(victim);
+                trimGhosts();
+            }
+        }
+        return victim;
+    }
+
+    private void trimGhosts() {
+        Iterator<PageId> it = a1out.iterator();
+        while (a1out.size() > kout) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    public List<PageId> getPagesByHotness() {
+        // Am, most recently used first, then A1in, newest first, with the
+        // pages only scans have read last
+        ArrayList<PageId> pages = new ArrayList<>(am);
+        Collections.reverse(pages);
+        ArrayList<PageId> probation = new ArrayList<>(a1in);
+        Collections.reverse(probation);
+        for (PageId pid : probation) {
+            if (!scanOnly.contains(pid)) {
+                pages.add(pid);
+            }
+        }
+        for (PageId pid : probation) {
+            if (scanOnly.contains(pid)) {
+                pages.add(pid);
+            }
+        }
+        return pages;
+    }
+
+    /** @return the oldest page of queue accepted by filter, or null */
+    private static PageId first(Collection<PageId> queue, Filter filter) {
+        for (PageId pid : queue) {
+            if (filter.canEvict(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
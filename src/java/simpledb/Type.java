@@ -42,6 +42,51 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+    }, VARCHAR_TYPE() {
+        /**
+         * Fixed-width layouts reserve room for the longest value; packed
+         * records only store the actual characters.
+         */
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                byte bs[] = new byte[strLen];
+                dis.readFully(bs);
+                dis.skipBytes(STRING_LEN-strLen);
+                return new StringField(new String(bs), STRING_LEN, VARCHAR_TYPE);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public int getPackedLen(Field f) {
+            return ((StringField) f).getValue().length() + 4;
+        }
+
+        @Override
+        public void serializePacked(Field f, DataOutputStream dos) throws IOException {
+            String s = ((StringField) f).getValue();
+            dos.writeInt(s.length());
+            dos.writeBytes(s);
+        }
+
+        @Override
+        public Field parsePacked(DataInputStream dis) throws ParseException {
+            try {
+                byte bs[] = new byte[dis.readInt()];
+                dis.readFully(bs);
+                return new StringField(new String(bs), STRING_LEN, VARCHAR_TYPE);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +105,47 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return the number of bytes field f occupies in a packed (variable
+   *   length) record, as used by {@link SlottedHeapPage}. Only
+   *   VARCHAR_TYPE fields are shorter than {@link #getLen()}.
+   * @param f a field of this type
+   */
+    public int getPackedLen(Field f) {
+        return getLen();
+    }
+
+  /**
+   * Writes field f, which must be of this type, in its packed form.
+   * @see #getPackedLen
+   */
+    public void serializePacked(Field f, DataOutputStream dos) throws IOException {
+        f.serialize(dos);
+    }
+
+  /**
+   * @return a Field of this type read from its packed form.
+   * @see #serializePacked
+   */
+    public Field parsePacked(DataInputStream dis) throws ParseException {
+        return parse(dis);
+    }
+
+  /**
+   * @return the type named by the specified schema keyword ("int",
+   *   "string" or "varchar", case insensitive), or null if there is none
+   */
+    public static Type forName(String name) {
+        switch (name.trim().toLowerCase()) {
+        case "int":
+            return INT_TYPE;
+        case "string":
+            return STRING_TYPE;
+        case "varchar":
+            return VARCHAR_TYPE;
+        default:
+            return null;
+        }
+    }
+
 }
@@ -0,0 +1,142 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 16;
+
+    // counts the pages read from disk, and reads slowly so that requests overlap
+    class CountingHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+
+        public CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private CountingHeapFile file;
+    private ExecutorService threads;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void createFile() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        file = new CountingHeapFile(f.getFile(), f.getTupleDesc());
+        Database.getCatalog().addTable(file, UUID.randomUUID().toString());
+        threads = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After public void shutdown() {
+        threads.shutdownNow();
+    }
+
+    /**
+     * Runs task on all threads at once and returns the results.
+     */
+    private <T> List<T> runConcurrently(final Callable<T> task) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<T>> futures = new ArrayList<Future<T>>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(threads.submit(new Callable<T>() {
+                public T call() throws Exception {
+                    start.await();
+                    return task.call();
+                }
+            }));
+        }
+        start.countDown();
+        List<T> results = new ArrayList<T>();
+        for (Future<T> future : futures) {
+            results.add(future.get());
+        }
+        return results;
+    }
+
+    /**
+     * Threads that miss on the same page at the same time read it once and
+     * all get the cached version.
+     */
+    @Test public void concurrentMissesReadOnce() throws Exception {
+        final BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        final TransactionId tid = new TransactionId();
+        final HeapPageId pid = new HeapPageId(file.getId(), 3);
+        List<Page> pages = runConcurrently(new Callable<Page>() {
+            public Page call() throws Exception {
+                return pool.getPage(tid, pid, Permissions.READ_ONLY);
+            }
+        });
+        assertEquals(1, file.reads.get());
+        for (Page page : pages) {
+            assertSame(pages.get(0), page);
+        }
+        assertSame(pages.get(0), pool.getPage(tid, pid, Permissions.READ_ONLY));
+        assertEquals(1, file.reads.get());
+    }
+
+    /**
+     * Concurrent scans through a pool smaller than the table evict each
+     * other's pages without losing or mixing up any of them.
+     */
+    @Test public void concurrentScansWithEviction() throws Exception {
+        Database.resetBufferPool(4).setReadAheadPages(0);
+        final TransactionId tid = new TransactionId();
+        List<Integer> counts = runConcurrently(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                int count = 0;
+                DbFileIterator it = file.iterator(tid);
+                it.open();
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    assertEquals(file.getId(), t.getRecordId().getPageId().getTableId());
+                    count++;
+                }
+                it.close();
+                return count;
+            }
+        });
+        for (int count : counts) {
+            assertEquals(504 * 10, count);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.UUID;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolMetricsTest extends SimpleDbTestBase {
+
+    private static final int FILE_PAGES = 6;
+
+    private HeapFile file;
+    private String name;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * FILE_PAGES, null, null);
+        file = new HeapFile(f.getFile(), f.getTupleDesc());
+        name = UUID.randomUUID().toString();
+        Database.getCatalog().addTable(file, name);
+        tid = new TransactionId();
+    }
+
+    private void readAll(BufferPool pool) throws Exception {
+        for (int i = 0; i < FILE_PAGES; i++) {
+            pool.getPage(tid, new HeapPageId(file.getId(), i), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * The first pass over the table misses on every page and the second one
+     * hits, and neither evicts anything from a pool that holds the table.
+     */
+    @Test public void hitsAndMisses() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        BufferPoolMetrics m = pool.getMetrics();
+        readAll(pool);
+        assertEquals(FILE_PAGES, m.getMisses(file.getId()));
+        assertEquals(0, m.getHits(file.getId()));
+        readAll(pool);
+        assertEquals(FILE_PAGES, m.getHits(file.getId()));
+        assertEquals(0.5, m.getHitRatio(), 0.0001);
+        assertEquals(0, m.getEvictions());
+        assertEquals(FILE_PAGES, m.getReadLatency().getCount());
+        assertEquals(FILE_PAGES, pool.getCachedPageCount());
+    }
+
+    /**
+     * A pool smaller than the table evicts pages, and committed changes are
+     * counted as written.
+     */
+    @Test public void evictionsAndWrites() throws Exception {
+        BufferPool pool = Database.resetBufferPool(FILE_PAGES / 2);
+        BufferPoolMetrics m = pool.getMetrics();
+        readAll(pool);
+        assertEquals(FILE_PAGES - FILE_PAGES / 2, m.getEvictions());
+
+        pool.insertTuple(tid, file.getId(), Utility.getHeapTuple(7, 2));
+        assertEquals(1, pool.getDirtyPageCount());
+        pool.transactionComplete(tid);
+        assertEquals(0, pool.getDirtyPageCount());
+        assertEquals(1, m.getPagesWritten());
+        assertEquals(1, m.getWriteLatency().getCount());
+
+        m.reset();
+        assertEquals(0, m.getMisses());
+        assertEquals(0, m.getEvictions());
+    }
+
+    /**
+     * The dump names the tables whose pages were requested.
+     */
+    @Test public void printStats() throws Exception {
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        readAll(pool);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pool.printStats(new PrintStream(out, true));
+        String stats = out.toString();
+        assertTrue(stats, stats.contains("table " + name + ": 0 hits, " + FILE_PAGES + " misses"));
+    }
+
+    /**
+     * Latencies land in power-of-two buckets of microseconds.
+     */
+    @Test public void latencyHistogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getPercentileMicros(50));
+        for (int i = 0; i < 99; i++) {
+            h.record(3000); // 3us
+        }
+        h.record(1000000); // 1ms
+        assertEquals(100, h.getCount());
+        assertEquals(4, h.getPercentileMicros(50));
+        assertEquals(4, h.getPercentileMicros(99));
+        assertEquals(1024, h.getPercentileMicros(100));
+        assertEquals((99 * 3 + 1000) / 100.0, h.getMeanMicros(), 0.0001);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolMetricsTest.class);
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolResizeTest extends SimpleDbTestBase {
+
+    private static final int FILE_PAGES = 10;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile file;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        file = SystemTestUtil.createRandomHeapFile(2, 504 * FILE_PAGES, null, tuples);
+        tid = new TransactionId();
+    }
+
+    private HeapPageId page(int pgNo) {
+        return new HeapPageId(file.getId(), pgNo);
+    }
+
+    private void readPages(BufferPool pool, int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            pool.getPage(tid, page(i), Permissions.READ_ONLY);
+        }
+    }
+
+    /**
+     * Shrinking evicts down to the new size and growing makes room for more
+     * pages, keeping the pages that are cached.
+     */
+    @Test public void resizeOnHeap() throws Exception {
+        BufferPool pool = Database.resetBufferPool(8);
+        readPages(pool, 0, 8);
+
+        pool.resize(4);
+        assertEquals(4, pool.getNumPages());
+        assertEquals(4, pool.getCachedPageCount());
+        readPages(pool, 0, FILE_PAGES);
+        assertEquals(4, pool.getCachedPageCount());
+
+        pool.resize(FILE_PAGES);
+        long evictions = pool.getMetrics().getEvictions();
+        readPages(pool, 0, FILE_PAGES);
+        readPages(pool, 0, FILE_PAGES);
+        assertEquals(FILE_PAGES, pool.getCachedPageCount());
+        assertEquals(evictions, pool.getMetrics().getEvictions());
+
+        // cached pages are kept when the pool grows
+        pool.resize(FILE_PAGES + 1);
+        Page p = pool.getPage(tid, page(0), Permissions.READ_ONLY);
+        assertSame(p, pool.getPage(tid, page(0), Permissions.READ_ONLY));
+        assertEquals(FILE_PAGES, pool.getCachedPageCount());
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /**
+     * An off-heap pool gives up the frames beyond its new size when it
+     * shrinks, and gets new ones when it grows.
+     */
+    @Test public void resizeOffHeap() throws Exception {
+        BufferPool pool = Database.resetBufferPool(6, new ClockPolicy(), true);
+        pool.setReadAheadPages(0);
+        readPages(pool, 0, 6);
+        pool.resize(3);
+        assertEquals(3, pool.getCachedPageCount());
+        SystemTestUtil.matchTuples(file, tuples);
+        assertEquals(3, pool.getCachedPageCount());
+
+        pool.resize(FILE_PAGES);
+        readPages(pool, 0, FILE_PAGES);
+        assertEquals(FILE_PAGES, pool.getCachedPageCount());
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /**
+     * Dirty pages are kept when the pool shrinks below them, until their
+     * transaction commits.
+     */
+    @Test public void shrinkWithDirtyPages() throws Exception {
+        BufferPool pool = Database.resetBufferPool(4, new ClockPolicy(), true);
+        pool.setReadAheadPages(0);
+        for (int i = 0; i < 4; i++) {
+            Tuple t = ((HeapPage) pool.getPage(tid, page(i), Permissions.READ_ONLY)).iterator().next();
+            pool.deleteTuple(tid, t);
+            tuples.remove(SystemTestUtil.tupleToList(t));
+        }
+        pool.resize(2);
+        assertEquals(4, pool.getCachedPageCount());
+        assertEquals(4, pool.getDirtyPageCount());
+
+        pool.transactionComplete(tid);
+        SystemTestUtil.matchTuples(file, tuples);
+        assertEquals(2, pool.getCachedPageCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolResizeTest.class);
+    }
+}
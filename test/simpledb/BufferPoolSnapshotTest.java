@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolSnapshotTest extends SimpleDbTestBase {
+
+    private static final int FILE_PAGES = 8;
+
+    private HeapFile file;
+    private File snapshot;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        file = SystemTestUtil.createRandomHeapFile(2, 504 * FILE_PAGES, null, null);
+        snapshot = File.createTempFile("bufferpool", ".snapshot");
+        snapshot.deleteOnExit();
+        tid = new TransactionId();
+    }
+
+    private HeapPageId page(int pgNo) {
+        return new HeapPageId(file.getId(), pgNo);
+    }
+
+    /**
+     * A pool loaded from a snapshot holds the hottest pages of the pool
+     * that saved it, as far as they fit.
+     */
+    @Test public void restoresHottestPages() throws Exception {
+        BufferPool pool = Database.resetBufferPool(FILE_PAGES, new TwoQueuePolicy());
+        pool.setReadAheadPages(0);
+        for (int i = 0; i < FILE_PAGES; i++) {
+            pool.getPage(tid, page(i), Permissions.READ_ONLY, i < FILE_PAGES - 2);
+        }
+        // the last two pages were not read by scans, so they are the hottest
+        pool.saveSnapshot(snapshot);
+
+        pool = Database.resetBufferPool(2, new TwoQueuePolicy());
+        assertEquals(2, pool.loadSnapshot(snapshot));
+        assertEquals(2, pool.getCachedPageCount());
+        BufferPoolMetrics m = pool.getMetrics();
+        m.reset();
+        pool.getPage(tid, page(FILE_PAGES - 1), Permissions.READ_ONLY);
+        pool.getPage(tid, page(FILE_PAGES - 2), Permissions.READ_ONLY);
+        assertEquals(2, m.getHits());
+        assertEquals(0, m.getMisses());
+    }
+
+    /**
+     * Loading does not evict cached pages and skips pages of tables that
+     * are no longer in the catalog.
+     */
+    @Test public void loadsIntoFreeFrames() throws Exception {
+        BufferPool pool = Database.resetBufferPool(FILE_PAGES);
+        pool.setReadAheadPages(0);
+        for (int i = 0; i < FILE_PAGES; i++) {
+            pool.getPage(tid, page(i), Permissions.READ_ONLY);
+        }
+        pool.saveSnapshot(snapshot);
+
+        pool = Database.resetBufferPool(FILE_PAGES);
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        for (int i = 0; i < 4; i++) {
+            pool.getPage(tid, new HeapPageId(other.getId(), i), Permissions.READ_ONLY);
+        }
+        assertEquals(FILE_PAGES - 4, pool.loadSnapshot(snapshot));
+        assertEquals(FILE_PAGES, pool.getCachedPageCount());
+        assertEquals(0, pool.getMetrics().getEvictions());
+
+        Database.getCatalog().clear();
+        pool = Database.resetBufferPool(FILE_PAGES);
+        assertEquals(0, pool.loadSnapshot(snapshot));
+    }
+
+    /**
+     * Checkpoints save the snapshot once a file is set.
+     */
+    @Test public void checkpointSavesSnapshot() throws Exception {
+        BufferPool pool = Database.resetBufferPool(FILE_PAGES);
+        assertTrue(snapshot.delete());
+        pool.saveSnapshot();
+        assertFalse(snapshot.exists());
+        pool.setSnapshotFile(snapshot);
+        pool.getPage(tid, page(0), Permissions.READ_ONLY);
+        Database.getLogFile().logCheckpoint();
+        assertTrue(snapshot.exists());
+        assertEquals(1, Database.resetBufferPool(FILE_PAGES).loadSnapshot(snapshot));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolSnapshotTest.class);
+    }
+}
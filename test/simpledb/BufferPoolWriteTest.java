@@ -133,6 +133,91 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * Dirties the first tuple of the specified page through the buffer pool
+     * and returns the page.
+     */
+    private Page dirtyPage(HeapFile f, int pgNo) throws Exception {
+        HeapPageId pid = new HeapPageId(f.getId(), pgNo);
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        Database.getBufferPool().deleteTuple(tid, p.iterator().next());
+        return Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+    }
+
+    /**
+     * Scans larger than the buffer pool evict clean pages but keep dirty
+     * ones in memory.
+     */
+    @Test public void evictCleanPagesOnly() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, null);
+        Database.resetBufferPool(3);
+        Page dirty = dirtyPage(f, 0);
+
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(504 * 8 - 1, count);
+
+        Page again = Database.getBufferPool().getPage(tid, dirty.getId(), Permissions.READ_ONLY);
+        assertSame(dirty, again);
+        assertEquals(tid, again.isDirty());
+    }
+
+    /**
+     * A pool holding only dirty pages writes one of them out, after
+     * logging it, to make room for another page (STEAL).
+     */
+    @Test public void evictAllDirty() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        Database.resetBufferPool(2);
+        dirtyPage(f, 0);
+        dirtyPage(f, 1);
+        Database.getBufferPool().getPage(tid, new HeapPageId(f.getId(), 2), Permissions.READ_ONLY);
+        assertEquals(1, Database.getBufferPool().getDirtyPageCount());
+        assertTrue(Database.getLogFile().isLogged(tid));
+    }
+
+    /**
+     * A pool holding only pinned pages cannot make room for another page.
+     */
+    @Test(expected = DbException.class)
+    public void evictAllPinned() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, null);
+        Database.resetBufferPool(2);
+        Database.getBufferPool().pinPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY, false);
+        Database.getBufferPool().pinPage(tid, new HeapPageId(f.getId(), 1), Permissions.READ_ONLY, false);
+        Database.getBufferPool().getPage(tid, new HeapPageId(f.getId(), 2), Permissions.READ_ONLY);
+    }
+
+    /**
+     * Completing a transaction writes or restores its own dirty pages and
+     * leaves those of other transactions alone.
+     */
+    @Test public void completeOnlyOwnPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        BufferPool pool = Database.getBufferPool();
+        TransactionId other = new TransactionId();
+        HeapPageId p0 = new HeapPageId(f.getId(), 0);
+        HeapPageId p1 = new HeapPageId(f.getId(), 1);
+        pool.deleteTuple(tid, ((HeapPage) pool.getPage(tid, p0, Permissions.READ_WRITE)).iterator().next());
+        pool.deleteTuple(other, ((HeapPage) pool.getPage(other, p1, Permissions.READ_WRITE)).iterator().next());
+        assertEquals(2, pool.getDirtyPageCount());
+
+        pool.flushPages(tid);
+        assertNull(pool.getPage(tid, p0, Permissions.READ_ONLY).isDirty());
+        assertEquals(other, pool.getPage(other, p1, Permissions.READ_ONLY).isDirty());
+
+        int emptySlots = ((HeapPage) f.readPage(p1)).getNumEmptySlots();
+        pool.transactionComplete(other, false);
+        assertEquals(emptySlots, ((HeapPage) pool.getPage(tid, p1, Permissions.READ_ONLY)).getNumEmptySlots());
+        assertEquals(emptySlots + 1, ((HeapPage) f.readPage(p0)).getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
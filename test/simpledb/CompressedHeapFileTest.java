@@ -0,0 +1,181 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 1000;
+    private static final String[] STATUS = { "shipped", "pending", "returned", "lost" };
+
+    private TupleDesc td;
+    private File text;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void writeInput() throws IOException {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        text = File.createTempFile("compressed", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < ROWS; i++) {
+            w.write(i + "," + STATUS[i % STATUS.length] + "\n");
+        }
+        w.close();
+    }
+
+    private CompressedHeapFile convert(HeapPageFormat format) throws IOException {
+        File dat = File.createTempFile("compressed", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convertCompressed(text, dat, 2, new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, ',', format);
+        new File(dat.getPath() + ".idx").deleteOnExit();
+        CompressedHeapFile hf = new CompressedHeapFile(dat, td, format);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    private ArrayList<Tuple> scan(HeapFile hf) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Pages read back from a compressed file hold the original tuples, and
+     * padded low-cardinality strings compress well.
+     */
+    @Test public void readCompressed() throws Exception {
+        for (HeapPageFormat format : HeapPageFormat.values()) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            CompressedHeapFile hf = convert(format);
+            ArrayList<Tuple> tuples = scan(hf);
+            assertEquals(ROWS, tuples.size());
+            for (Tuple t : tuples) {
+                int key = ((IntField) t.getField(0)).getValue();
+                assertEquals(STATUS[key % STATUS.length], ((StringField) t.getField(1)).getValue());
+            }
+            assertTrue(format + " ratio " + hf.getCompressionRatio(), hf.getCompressionRatio() > 4);
+            assertTrue(new File(hf.getFile().getPath()).length() * 4 < (long) hf.numPages() * BufferPool.getPageSize());
+        }
+    }
+
+    /**
+     * The compression ratio is part of the table's statistics and lowers its
+     * estimated scan cost.
+     */
+    @Test public void tableStats() throws Exception {
+        CompressedHeapFile hf = convert(HeapPageFormat.ROW);
+        TableStats stats = new TableStats(hf.getId(), 1000);
+        assertEquals(hf.getCompressionRatio(), stats.getCompressionRatio(), 0.0001);
+        assertTrue(stats.estimateScanCost() < hf.numPages() * 1000 * 2);
+    }
+
+    /**
+     * Rewritten and appended pages are compressed too and survive reopening
+     * the file.
+     */
+    @Test public void writeCompressed() throws Exception {
+        CompressedHeapFile hf = convert(HeapPageFormat.ROW);
+        int pages = hf.numPages();
+        TransactionId tid = new TransactionId();
+
+        // fill up the last page and append a few more
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        for (int i = 0; i < 200; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(ROWS + i));
+            t.setField(1, new StringField(STATUS[(ROWS + i) % STATUS.length], Type.STRING_LEN));
+            for (Page p : hf.insertTuple(tid, t)) {
+                if (!dirty.contains(p)) {
+                    dirty.add(p);
+                }
+            }
+        }
+        for (Page p : dirty) {
+            hf.writePage(p);
+        }
+        assertTrue(hf.numPages() > pages);
+        hf.close();
+
+        CompressedHeapFile reopened = new CompressedHeapFile(hf.getFile(), td, HeapPageFormat.ROW);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(hf.numPages(), reopened.numPages());
+        assertEquals(ROWS + 200, scan(reopened).size());
+        assertTrue(reopened.getCompressionRatio() > 4);
+    }
+
+    /**
+     * A rewritten page is appended rather than written over its old image,
+     * so an index that was not updated before a crash still reads the old
+     * version of the page.
+     */
+    @Test public void rewriteKeepsOldImage() throws Exception {
+        CompressedHeapFile hf = convert(HeapPageFormat.ROW);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        int emptySlots = page.getNumEmptySlots();
+        byte[] oldIndex = Files.readAllBytes(hf.getIndexFile().toPath());
+        long oldLength = hf.getFile().length();
+
+        page.deleteTuple(page.iterator().next());
+        hf.writePage(page);
+        assertTrue(hf.getFile().length() > oldLength);
+        assertEquals(emptySlots + 1, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+        hf.close();
+
+        // as if the index write had not happened
+        Files.write(hf.getIndexFile().toPath(), oldIndex);
+        CompressedHeapFile reopened = new CompressedHeapFile(hf.getFile(), td, HeapPageFormat.ROW);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(emptySlots, ((HeapPage) reopened.readPage(new HeapPageId(reopened.getId(), 0))).getNumEmptySlots());
+    }
+
+    /**
+     * An index that ends in a partial entry is reported as corrupt.
+     */
+    @Test public void partialIndexEntry() throws Exception {
+        CompressedHeapFile hf = convert(HeapPageFormat.ROW);
+        hf.close();
+        RandomAccessFile index = new RandomAccessFile(hf.getIndexFile(), "rw");
+        index.setLength(index.length() - 4);
+        index.close();
+
+        CompressedHeapFile reopened = new CompressedHeapFile(hf.getFile(), td, HeapPageFormat.ROW);
+        try {
+            reopened.numPages();
+            fail("expected the index to be reported as corrupt");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,200 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeadlockTest extends TestUtil.CreateHeapFile {
+    /** Time given to lock requests to block, or to be granted once they can be */
+    private static final int TIMEOUT = 200;
+
+    private PageId p0, p1, p2;
+    private TransactionId tid1, tid2, tid3;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+
+        // create a three page table
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 504 * 2 + 1; ++i) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+
+        p0 = new HeapPageId(empty.getId(), 0);
+        p1 = new HeapPageId(empty.getId(), 1);
+        p2 = new HeapPageId(empty.getId(), 2);
+        // created in this order, so tid3 is the youngest
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+        tid3 = new TransactionId();
+    }
+
+    /** Requests a lock in another thread, which aborts its transaction on failure. */
+    private TestUtil.LockGrabber startGrabber(TransactionId tid, PageId pid, Permissions perm)
+            throws Exception {
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.setDaemon(true);
+        t.start();
+        Thread.sleep(TIMEOUT);
+        return t;
+    }
+
+    /**
+     * Two transactions that each want the page the other holds: the
+     * younger one is aborted and the older one gets its lock.
+     */
+    @Test public void testReadWriteDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+
+        TestUtil.LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_WRITE);
+        assertFalse(lg1.acquired());
+        TestUtil.LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+
+        assertTrue(lg2.getError() instanceof DeadlockException);
+        assertFalse(lg2.acquired());
+        assertTrue(lg1.acquired());
+        assertNull(lg1.getError());
+        assertFalse(bp.holdsLock(tid2, p1));
+    }
+
+    /**
+     * Two holders of a shared lock that both upgrade it: the younger one
+     * is aborted, whichever asks first.
+     */
+    @Test public void testUpgradeDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+
+        TestUtil.LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+        assertFalse(lg2.acquired());
+        TestUtil.LockGrabber lg1 = startGrabber(tid1, p0, Permissions.READ_WRITE);
+
+        assertTrue(lg2.getError() instanceof DeadlockException);
+        assertTrue(lg1.acquired());
+        assertNull(lg1.getError());
+    }
+
+    /**
+     * A cycle through three transactions is broken by aborting the youngest
+     * one only; the others keep waiting for each other's locks as usual.
+     */
+    @Test public void testThreeWayDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        bp.getPage(tid3, p2, Permissions.READ_WRITE);
+
+        TestUtil.LockGrabber lg3 = startGrabber(tid3, p0, Permissions.READ_ONLY);
+        TestUtil.LockGrabber lg1 = startGrabber(tid1, p1, Permissions.READ_ONLY);
+        assertFalse(lg3.acquired());
+        assertFalse(lg1.acquired());
+        TestUtil.LockGrabber lg2 = startGrabber(tid2, p2, Permissions.READ_ONLY);
+
+        assertTrue(lg3.getError() instanceof DeadlockException);
+        assertTrue(lg2.acquired());
+        assertFalse(lg1.acquired());
+        assertNull(lg1.getError());
+
+        bp.transactionComplete(tid2);
+        Thread.sleep(TIMEOUT);
+        assertTrue(lg1.acquired());
+    }
+
+    /**
+     * Transactions that merely wait for each other are not aborted.
+     */
+    @Test public void testNoFalseDeadlock() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber lg2 = startGrabber(tid2, p0, Permissions.READ_WRITE);
+        TestUtil.LockGrabber lg3 = startGrabber(tid3, p0, Permissions.READ_ONLY);
+        assertNull(lg2.getError());
+        assertNull(lg3.getError());
+
+        bp.transactionComplete(tid1);
+        Thread.sleep(TIMEOUT);
+        assertEquals(1, (lg2.acquired() ? 1 : 0) + (lg3.acquired() ? 1 : 0));
+        assertNull(lg2.getError());
+        assertNull(lg3.getError());
+    }
+
+    /** Requests a lock from a LockManager in another thread. */
+    private static class Requester extends Thread {
+        private final LockManager lm;
+        private final TransactionId tid;
+        private final Object resource;
+        private final LockManager.Mode mode;
+        volatile boolean acquired;
+        volatile Exception error;
+
+        Requester(LockManager lm, TransactionId tid, Object resource, LockManager.Mode mode) {
+            this.lm = lm;
+            this.tid = tid;
+            this.resource = resource;
+            this.mode = mode;
+            setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                lm.acquire(tid, resource, mode);
+                acquired = true;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    private Requester startRequester(LockManager lm, TransactionId tid, Object resource,
+            LockManager.Mode mode) throws Exception {
+        Requester r = new Requester(lm, tid, resource, mode);
+        r.start();
+        Thread.sleep(TIMEOUT);
+        return r;
+    }
+
+    /**
+     * Holders whose mode is compatible with a request are not waited for,
+     * so they do not close a cycle in the waits-for graph.
+     */
+    @Test public void testCompatibleHoldersNoDeadlock() throws Exception {
+        LockManager lm = new LockManager();
+        Object table = LockManager.table(empty.getId());
+        lm.acquire(tid1, table, LockManager.Mode.IS);
+        lm.acquire(tid3, table, LockManager.Mode.IX);
+        lm.acquire(tid2, p0, LockManager.Mode.EXCLUSIVE);
+
+        // tid1 waits for tid2, and tid2 for tid3 but not for tid1
+        Requester r1 = startRequester(lm, tid1, p0, LockManager.Mode.SHARED);
+        Requester r2 = startRequester(lm, tid2, table, LockManager.Mode.SHARED);
+        assertFalse(r1.acquired);
+        assertFalse(r2.acquired);
+        assertNull(r1.error);
+        assertNull(r2.error);
+
+        lm.releaseAll(tid3);
+        r2.join(TIMEOUT);
+        assertTrue(r2.acquired);
+        lm.releaseAll(tid2);
+        r1.join(TIMEOUT);
+        assertTrue(r1.acquired);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DeadlockTest.class);
+    }
+}
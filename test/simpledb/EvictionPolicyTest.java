@@ -0,0 +1,139 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 8;
+
+    private HeapFile small;
+    private HeapFile big;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void createFiles() throws Exception {
+        small = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        big = SystemTestUtil.createRandomHeapFile(2, 504 * 3 * POOL_PAGES, null, null);
+        tid = new TransactionId();
+    }
+
+    private void scan(HeapFile f) throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+        }
+        it.close();
+    }
+
+    /**
+     * Requests a page that is used individually, scans a table three times
+     * as large as the pool, and returns whether the page is still cached.
+     */
+    private boolean hotPageSurvivesScan(EvictionPolicy policy) throws Exception {
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES, policy);
+        pool.setReadAheadPages(0);
+        HeapPageId hot = new HeapPageId(small.getId(), 0);
+        pool.getPage(tid, hot, Permissions.READ_ONLY);
+        // a first scan pushes it out, and it is requested again
+        scan(big);
+        pool.getPage(tid, hot, Permissions.READ_ONLY);
+        Page before = pool.getPage(tid, hot, Permissions.READ_ONLY);
+        scan(big);
+        return before == pool.getPage(tid, hot, Permissions.READ_ONLY);
+    }
+
+    /**
+     * 2Q keeps a reused page cached through a large scan; CLOCK does not.
+     */
+    @Test public void scanResistance() throws Exception {
+        assertEquals(true, hotPageSurvivesScan(new TwoQueuePolicy()));
+        assertEquals(false, hotPageSurvivesScan(new ClockPolicy()));
+    }
+
+    /**
+     * Policies only return pages the filter accepts and forget removed ones.
+     */
+    @Test public void filterAndRemove() {
+        EvictionPolicy[] policies = { new ClockPolicy(), new TwoQueuePolicy() };
+        for (EvictionPolicy policy : policies) {
+            policy.setCapacity(4);
+            final HeapPageId a = new HeapPageId(1, 0);
+            HeapPageId b = new HeapPageId(1, 1);
+            HeapPageId c = new HeapPageId(1, 2);
+            policy.pageAdded(a, false);
+            policy.pageAdded(b, false);
+            policy.pageAdded(c, true);
+            policy.pageRemoved(c);
+            assertEquals(b, policy.evict(pid -> !pid.equals(a)));
+            assertNull(policy.evict(pid -> !pid.equals(a)));
+            assertEquals(a, policy.evict(pid -> true));
+            assertNull(policy.evict(pid -> true));
+        }
+    }
+
+    /**
+     * Pages the policies would evict last come first in the hotness order,
+     * and pages only scans have read come last.
+     */
+    @Test public void pagesByHotness() {
+        HeapPageId a = new HeapPageId(1, 0);
+        HeapPageId b = new HeapPageId(1, 1);
+        HeapPageId c = new HeapPageId(1, 2);
+        HeapPageId d = new HeapPageId(1, 3);
+
+        EvictionPolicy clock = new ClockPolicy();
+        clock.setCapacity(4);
+        clock.pageAdded(a, false);
+        clock.pageAdded(b, true);
+        clock.pageAdded(c, false);
+        assertEquals(Arrays.asList(c, a, b), clock.getPagesByHotness());
+
+        EvictionPolicy twoQueue = new TwoQueuePolicy();
+        twoQueue.setCapacity(4);
+        // d is evicted and requested again, which promotes it to Am
+        twoQueue.pageAdded(d, false);
+        assertEquals(d, twoQueue.evict(pid -> true));
+        twoQueue.pageAdded(d, false);
+        twoQueue.pageAdded(a, false);
+        twoQueue.pageAdded(b, true);
+        twoQueue.pageAdded(c, false);
+        assertEquals(Arrays.asList(d, c, a, b), twoQueue.getPagesByHotness());
+    }
+
+    /**
+     * Pages keep being returned by getPage while cached, whichever policy.
+     */
+    @Test public void cachedPagesAreShared() throws Exception {
+        BufferPool pool = Database.resetBufferPool(POOL_PAGES, new TwoQueuePolicy());
+        HeapPageId pid = new HeapPageId(big.getId(), 0);
+        Page p = pool.getPage(tid, pid, Permissions.READ_ONLY, true);
+        assertSame(p, pool.getPage(tid, pid, Permissions.READ_ONLY));
+        for (int i = 1; i <= POOL_PAGES; i++) {
+            pool.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, true);
+        }
+        assertNotSame(p, pool.getPage(tid, pid, Permissions.READ_ONLY));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+
+    /**
+     * Transactions that commit together share the forces of the log, and
+     * all of them are committed when their commits return.
+     */
+    @Test public void concurrentCommitsShareForces() throws Exception {
+        final LogFile log = Database.getLogFile();
+        log.setGroupCommitWait(2000000);
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        final List<Transaction> committed = Collections.synchronizedList(new ArrayList<Transaction>());
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        long forces = log.getForceCount();
+
+        ArrayList<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        Transaction t = new Transaction();
+                        t.start();
+                        barrier.await();
+                        t.commit();
+                        committed.add(t);
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(errors.toString(), 0, errors.size());
+        assertEquals(THREADS, committed.size());
+        for (Transaction t : committed) {
+            assertFalse(log.isLogged(t.getId()));
+        }
+        long used = log.getForceCount() - forces;
+        assertTrue("forced " + used + " times", used >= 1 && used < THREADS);
+    }
+
+    /**
+     * A commit does not wait for others to join it when no other
+     * transaction is running.
+     */
+    @Test public void loneCommitDoesNotWait() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommitWait(10000000);
+        long forces = log.getForceCount();
+        long start = System.currentTimeMillis();
+        Transaction t = new Transaction();
+        t.start();
+        t.commit();
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(forces + 1, log.getForceCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
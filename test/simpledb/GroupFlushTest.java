@@ -0,0 +1,109 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class GroupFlushTest extends SimpleDbTestBase {
+
+    // records the runs of pages written and the number of forces
+    class RecordingHeapFile extends HeapFile {
+        final List<String> writes = new ArrayList<String>();
+        int forces;
+
+        public RecordingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        protected void writePageImages(int firstPgNo, ByteBuffer images) throws IOException {
+            int pages = images.remaining() / BufferPool.getPageSize();
+            writes.add(firstPgNo + "+" + pages);
+            super.writePageImages(firstPgNo, images);
+        }
+
+        @Override
+        public void force() throws IOException {
+            forces++;
+            super.force();
+        }
+    }
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private RecordingHeapFile file;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, tuples);
+        file = new RecordingHeapFile(f.getFile(), f.getTupleDesc());
+        Database.getCatalog().addTable(file, UUID.randomUUID().toString());
+        tid = new TransactionId();
+    }
+
+    /** Deletes the first tuple of each of the specified pages, in that order. */
+    private void dirty(int... pgNos) throws Exception {
+        for (int pgNo : pgNos) {
+            HeapPageId pid = new HeapPageId(file.getId(), pgNo);
+            Tuple t = ((HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY))
+                    .iterator().next();
+            Database.getBufferPool().deleteTuple(tid, t);
+            tuples.remove(SystemTestUtil.tupleToList(t));
+        }
+    }
+
+    /**
+     * Committing writes the transaction's pages in page number order, as
+     * one write per run of consecutive pages, and forces the file once.
+     */
+    @Test public void commitWritesRuns() throws Exception {
+        dirty(6, 2, 1, 3);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(Arrays.asList("1+3", "6+1"), file.writes);
+        assertEquals(1, file.forces);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /**
+     * flushAllPages leaves no dirty pages behind.
+     */
+    @Test public void flushAllPages() throws Exception {
+        dirty(4, 5);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(Arrays.asList("4+2"), file.writes);
+        assertEquals(1, file.forces);
+        for (int pgNo : new int[] { 4, 5 }) {
+            HeapPageId pid = new HeapPageId(file.getId(), pgNo);
+            assertNull(Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY).isDirty());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, file.forces);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupFlushTest.class);
+    }
+}
@@ -77,6 +77,72 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() from several threads sharing the
+     * file's channel, and for reopening the file after close()
+     */
+    @Test
+    public void readPageConcurrentAndAfterClose() throws Exception {
+        final HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        final int pages = bigFile.numPages();
+        Thread[] readers = new Thread[4];
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 50; j++) {
+                            int pgNo = j % pages;
+                            HeapPage page = (HeapPage) bigFile.readPage(new HeapPageId(bigFile.getId(), pgNo));
+                            assertEquals(0, page.getNumEmptySlots());
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+
+        bigFile.close();
+        HeapPage page = (HeapPage) bigFile.readPage(new HeapPageId(bigFile.getId(), 0));
+        assertEquals(0, page.getNumEmptySlots());
+        bigFile.close();
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() with the memory-mapped read path,
+     * including a page appended after the file was mapped
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile mappedFile = SystemTestUtil.createRandomHeapFile(2, 504 + 20, null, null);
+        mappedFile.setMemoryMapped(true);
+        assertTrue(mappedFile.isMemoryMapped());
+        byte[] fileBytes = TestUtil.readFileBytes(mappedFile.getFile().getAbsolutePath());
+        int pageSize = BufferPool.getPageSize();
+        for (int i = 0; i < 2; i++) {
+            HeapPage mapped = (HeapPage) mappedFile.readPage(new HeapPageId(mappedFile.getId(), i));
+            assertArrayEquals(Arrays.copyOfRange(fileBytes, i * pageSize, (i + 1) * pageSize),
+                    mapped.getPageData());
+        }
+        assertEquals(0, ((HeapPage) mappedFile.readPage(new HeapPageId(mappedFile.getId(), 0))).getNumEmptySlots());
+        assertEquals(484, ((HeapPage) mappedFile.readPage(new HeapPageId(mappedFile.getId(), 1))).getNumEmptySlots());
+
+        // grow the file behind the mapping
+        HeapPageId newPid = new HeapPageId(mappedFile.getId(), 2);
+        mappedFile.writePage(new HeapPage(newPid, HeapPage.createEmptyPageData()));
+        assertEquals(504, ((HeapPage) mappedFile.readPage(newPid)).getNumEmptySlots());
+
+        mappedFile.setMemoryMapped(false);
+        assertEquals(484, ((HeapPage) mappedFile.readPage(new HeapPageId(mappedFile.getId(), 1))).getNumEmptySlots());
+        mappedFile.close();
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
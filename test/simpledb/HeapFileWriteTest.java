@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.util.ArrayList;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +45,56 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.insertTuple() reusing space freed by
+     * HeapFile.deleteTuple()
+     */
+    @Test public void addTupleReusesFreedSlot() throws Exception {
+        Tuple first = null;
+        for (int i = 0; i < 504 * 2; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            empty.insertTuple(tid, t);
+            if (i == 0)
+                first = t;
+        }
+        assertEquals(2, empty.numPages());
+
+        empty.deleteTuple(tid, first);
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(2, empty.numPages());
+        assertEquals(first.getRecordId().getPageId(), t.getRecordId().getPageId());
+
+        // the file is full again, so the next tuple goes on a new page
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuples(): tops up the existing page and
+     * appends the rest as new pages
+     */
+    @Test public void addTuples() throws Exception {
+        for (int i = 0; i < 10; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 3; ++i) {
+            tuples.add(Utility.getHeapTuple(i, 2));
+        }
+        ArrayList<Page> modified = empty.insertTuples(tid, tuples.iterator());
+        assertEquals(1, modified.size());
+        assertEquals(0, ((HeapPage) modified.get(0)).getNumEmptySlots());
+        assertEquals(4, empty.numPages());
+        for (Tuple t : tuples) {
+            assertTrue(t.getRecordId().getPageId().pageNumber() < 4);
+        }
+
+        // pages 1-3 were written straight to disk
+        HeapPage last = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 3));
+        assertEquals(504 - 10, last.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,9 +1,12 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +129,21 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage() after the page is modified;
+     * tuples are decoded lazily from the image the page was read with, so
+     * modifications must neither change nor lose that image.
+     */
+    @Test public void beforeImageAfterModification() throws Exception {
+        byte[] original = HeapPageReadTest.EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.deleteTuple(page.iterator().next());
+
+        assertArrayEquals(original, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(original, page.getBeforeImage().getPageData());
+        assertFalse(Arrays.equals(original, page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
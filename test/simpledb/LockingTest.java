@@ -0,0 +1,147 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LockingTest extends TestUtil.CreateHeapFile {
+    /** Time given to a lock request before it is considered blocked */
+    private static final int TIMEOUT = 100;
+
+    private PageId p0, p1, p2;
+    private TransactionId tid1, tid2;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+
+        // create a three page table whose last page has room
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 504 * 2 + 1; ++i) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+        assertEquals(3, empty.numPages());
+
+        p0 = new HeapPageId(empty.getId(), 0);
+        p1 = new HeapPageId(empty.getId(), 1);
+        p2 = new HeapPageId(empty.getId(), 2);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    /**
+     * Requests a lock in another thread and checks, after a while, whether
+     * it has been granted.
+     *
+     * @return the thread, which is still waiting if the lock was not granted
+     */
+    private TestUtil.LockGrabber grabLock(TransactionId tid, PageId pid, Permissions perm,
+            boolean expected) throws Exception {
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.setDaemon(true);
+        t.start();
+        Thread.sleep(TIMEOUT);
+        assertEquals(expected, t.acquired());
+        assertNull(t.getError());
+        return t;
+    }
+
+    /**
+     * Has tid1 lock pid1 with perm1, and then checks whether tid2 can lock
+     * pid2 with perm2.
+     */
+    private void metaLockTester(TransactionId tid1, PageId pid1, Permissions perm1,
+            TransactionId tid2, PageId pid2, Permissions perm2, boolean expected) throws Exception {
+        bp.getPage(tid1, pid1, perm1);
+        grabLock(tid2, pid2, perm2, expected);
+    }
+
+    @Test public void acquireReadLocksOnSamePage() throws Exception {
+        metaLockTester(tid1, p0, Permissions.READ_ONLY, tid2, p0, Permissions.READ_ONLY, true);
+    }
+
+    @Test public void acquireReadWriteLocksOnSamePage() throws Exception {
+        metaLockTester(tid1, p0, Permissions.READ_ONLY, tid2, p0, Permissions.READ_WRITE, false);
+    }
+
+    @Test public void acquireWriteReadLocksOnSamePage() throws Exception {
+        metaLockTester(tid1, p0, Permissions.READ_WRITE, tid2, p0, Permissions.READ_ONLY, false);
+    }
+
+    @Test public void acquireReadWriteLocksOnTwoPages() throws Exception {
+        metaLockTester(tid1, p0, Permissions.READ_ONLY, tid2, p1, Permissions.READ_WRITE, true);
+    }
+
+    @Test public void acquireWriteLocksOnTwoPages() throws Exception {
+        metaLockTester(tid1, p0, Permissions.READ_WRITE, tid2, p1, Permissions.READ_WRITE, true);
+    }
+
+    @Test public void acquireThenRelease() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        assertTrue(bp.holdsLock(tid1, p0));
+        bp.releasePage(tid1, p0);
+        assertFalse(bp.holdsLock(tid1, p0));
+        grabLock(tid2, p0, Permissions.READ_WRITE, true);
+        assertTrue(bp.holdsLock(tid2, p0));
+    }
+
+    /**
+     * The only holder of a shared lock can upgrade it; another holder has
+     * to wait until the shared locks are released.
+     */
+    @Test public void lockUpgrade() throws Exception {
+        metaLockTester(tid1, p0, Permissions.READ_ONLY, tid1, p0, Permissions.READ_WRITE, true);
+
+        bp.getPage(tid1, p1, Permissions.READ_ONLY);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+        TestUtil.LockGrabber upgrade = grabLock(tid2, p1, Permissions.READ_WRITE, false);
+        bp.transactionComplete(tid1);
+        Thread.sleep(TIMEOUT);
+        assertTrue(upgrade.acquired());
+    }
+
+    /**
+     * Completing a transaction releases its locks and wakes up the
+     * transactions waiting for them.
+     */
+    @Test public void transactionCompleteReleasesLocks() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid1, p1, Permissions.READ_ONLY);
+        TestUtil.LockGrabber waiter = grabLock(tid2, p0, Permissions.READ_ONLY, false);
+        bp.transactionComplete(tid1, true);
+        Thread.sleep(TIMEOUT);
+        assertTrue(waiter.acquired());
+        assertFalse(bp.holdsLock(tid1, p0));
+        assertFalse(bp.holdsLock(tid1, p1));
+    }
+
+    /**
+     * Aborting a transaction drops the pages it modified, so the next
+     * reader sees the page as it was.
+     */
+    @Test public void abortDiscardsChanges() throws Exception {
+        int empty2 = ((HeapPage) bp.getPage(tid1, p2, Permissions.READ_ONLY)).getNumEmptySlots();
+        bp.insertTuple(tid1, empty.getId(), Utility.getHeapTuple(7, 2));
+        assertEquals(empty2 - 1, ((HeapPage) bp.getPage(tid1, p2, Permissions.READ_ONLY)).getNumEmptySlots());
+        bp.transactionComplete(tid1, false);
+        assertEquals(empty2, ((HeapPage) bp.getPage(tid2, p2, Permissions.READ_ONLY)).getNumEmptySlots());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockingTest.class);
+    }
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OffHeapBufferPoolTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 4;
+    private static final int FILE_PAGES = 10;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile file;
+    private BufferPool pool;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        file = SystemTestUtil.createRandomHeapFile(2, 504 * FILE_PAGES, null, tuples);
+        pool = Database.resetBufferPool(POOL_PAGES, new ClockPolicy(), true);
+        tid = new TransactionId();
+    }
+
+    private HeapPageId page(int pgNo) {
+        return new HeapPageId(file.getId(), pgNo);
+    }
+
+    /**
+     * Scans through a pool smaller than the table read every tuple
+     * correctly out of reused frames, with and without read-ahead.
+     */
+    @Test public void scan() throws Exception {
+        assertTrue(pool.isOffHeap());
+        SystemTestUtil.matchTuples(file, tuples);
+        pool.setReadAheadPages(0);
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /**
+     * A pinned page keeps its frame while other pages cycle through the
+     * pool, and a pool whose pages are all pinned cannot take another page.
+     */
+    @Test public void pinning() throws Exception {
+        pool.setReadAheadPages(0);
+        HeapPage first = (HeapPage) pool.pinPage(tid, page(0), Permissions.READ_ONLY, false);
+        assertTrue(first.data.isDirect());
+        for (int i = 1; i < FILE_PAGES; i++) {
+            pool.getPage(tid, page(i), Permissions.READ_ONLY);
+        }
+        assertSame(first, pool.getPage(tid, page(0), Permissions.READ_ONLY));
+        assertEquals(tuples.get(0), SystemTestUtil.tupleToList(first.iterator().next()));
+
+        for (int i = 1; i < POOL_PAGES; i++) {
+            pool.pinPage(tid, page(i), Permissions.READ_ONLY, false);
+        }
+        try {
+            pool.getPage(tid, page(POOL_PAGES), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // all frames are pinned
+        }
+        pool.unpinPage(page(1));
+        pool.getPage(tid, page(POOL_PAGES), Permissions.READ_ONLY);
+        assertSame(first, pool.getPage(tid, page(0), Permissions.READ_ONLY));
+
+        for (int i = 0; i < POOL_PAGES; i++) {
+            if (i != 1) {
+                pool.unpinPage(page(i));
+            }
+        }
+        try {
+            pool.unpinPage(page(0));
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // not pinned any more
+        }
+    }
+
+    /**
+     * Pages modified in frames keep their changes until they are flushed,
+     * while the other frames are reused.
+     */
+    @Test public void modify() throws Exception {
+        Tuple victim = ((HeapPage) pool.getPage(tid, page(0), Permissions.READ_ONLY)).iterator().next();
+        pool.deleteTuple(tid, victim);
+        tuples.remove(0);
+        pool.insertTuple(tid, file.getId(), Utility.getHeapTuple(7, 2));
+        tuples.add(new ArrayList<Integer>(Arrays.asList(7, 7)));
+        SystemTestUtil.matchTuples(file, tid, tuples);
+
+        pool.flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OffHeapBufferPoolTest.class);
+    }
+}
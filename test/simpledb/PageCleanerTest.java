@@ -0,0 +1,106 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = 4;
+    private static final int FILE_PAGES = 8;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private ArrayList<ArrayList<Integer>> remaining;
+    private HeapFile file;
+    private BufferPool pool;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        file = SystemTestUtil.createRandomHeapFile(2, 504 * FILE_PAGES, null, tuples);
+        remaining = new ArrayList<ArrayList<Integer>>(tuples);
+        pool = Database.resetBufferPool(POOL_PAGES);
+        pool.setReadAheadPages(0);
+        tid = new TransactionId();
+    }
+
+    @After public void stopCleaner() {
+        pool.stopPageCleaner();
+    }
+
+    private HeapPageId page(int pgNo) {
+        return new HeapPageId(file.getId(), pgNo);
+    }
+
+    /** Deletes the first tuple of each of the first count pages, filling the pool with dirty pages. */
+    private void dirtyPool(int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            Tuple t = ((HeapPage) pool.getPage(tid, page(i), Permissions.READ_ONLY)).iterator().next();
+            pool.deleteTuple(tid, t);
+            remaining.remove(SystemTestUtil.tupleToList(t));
+        }
+    }
+
+    /** @return the number of empty slots of the page as stored on disk */
+    private int emptySlotsOnDisk(int pgNo) {
+        return ((HeapPage) file.readPage(page(pgNo))).getNumEmptySlots();
+    }
+
+    /**
+     * The cleaner writes the dirty pages of a running transaction until
+     * the pool is below the watermark again, so that other pages can be
+     * read in without writing on the way.
+     */
+    @Test public void cleanerMakesRoom() throws Exception {
+        dirtyPool(POOL_PAGES);
+        pool.startPageCleaner(0.5, 10);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (pool.getDirtyPageCount() > POOL_PAGES / 2) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("the cleaner did not write any page");
+            }
+            Thread.sleep(10);
+        }
+        pool.getPage(tid, page(POOL_PAGES), Permissions.READ_ONLY);
+
+        pool.transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(file, remaining);
+    }
+
+    /**
+     * Pages written before their transaction aborts are restored on disk.
+     */
+    @Test public void abortRestoresStolenPages() throws Exception {
+        int before = emptySlotsOnDisk(0);
+        dirtyPool(2);
+        assertEquals(2, pool.cleanPages(POOL_PAGES));
+        assertEquals(before + 1, emptySlotsOnDisk(0));
+        assertNull(pool.getPage(tid, page(0), Permissions.READ_ONLY).isDirty());
+
+        pool.transactionComplete(tid, false);
+        assertEquals(before, emptySlotsOnDisk(0));
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,155 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws IOException {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("row" + i, Type.STRING_LEN));
+        t.setField(2, new IntField(-i));
+        return t;
+    }
+
+    /**
+     * A PAX page has as many slots as a HeapPage and keeps tuples in the
+     * same slots across a round trip through getPageData.
+     */
+    @Test public void insertAndReload() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        HeapPage rowPage = new HeapPage(pid, HeapPage.createEmptyPageData());
+        assertEquals(rowPage.getNumEmptySlots(), page.getNumEmptySlots());
+
+        int slots = page.getNumEmptySlots();
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < slots; i++) {
+            Tuple t = tuple(i);
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        page.deleteTuple(inserted.get(5));
+
+        PaxHeapPage reloaded = new PaxHeapPage(pid, page.getPageData());
+        assertEquals(1, reloaded.getNumEmptySlots());
+        assertFalse(reloaded.isSlotUsed(5));
+        Iterator<Tuple> it = reloaded.iterator();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals(i, t.getRecordId().tupleno());
+            assertTrue(TestUtil.compareTuples(tuple(i), t));
+            count++;
+        }
+        assertEquals(slots - 1, count);
+    }
+
+    /**
+     * Each field is stored in its own contiguous region of the page.
+     */
+    @Test public void columnsAreContiguous() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumEmptySlots();
+        for (int i = 0; i < 10; i++) {
+            page.insertTuple(tuple(i));
+        }
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        int header = (slots + 7) / 8;
+        int lastColumn = header + slots * (Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, data.getInt(header + i * 4));
+            assertEquals(-i, data.getInt(lastColumn + i * 4));
+        }
+    }
+
+    /**
+     * Modified pages keep the image they were read with as before image.
+     */
+    @Test public void beforeImage() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        page.insertTuple(tuple(1));
+        PaxHeapPage before = page.getBeforeImage();
+        assertFalse(before.iterator().hasNext());
+    }
+
+    /**
+     * Tables declared with the pax format in a schema file are written by
+     * HeapFileEncoder and read back through HeapFile.
+     */
+    @Test public void catalogTable() throws Exception {
+        File dir = File.createTempFile("pax", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        dir.deleteOnExit();
+        File schema = new File(dir, "schema.txt");
+        FileWriter w = new FileWriter(schema);
+        w.write("paxtable (a int, b string, c int) pax\n");
+        w.close();
+        File text = new File(dir, "paxtable.txt");
+        w = new FileWriter(text);
+        int rows = 100;
+        for (int i = 0; i < rows; i++) {
+            w.write(i + ",row" + i + "," + (-i) + "\n");
+        }
+        w.close();
+        File dat = new File(dir, "paxtable.dat");
+        HeapFileEncoder.convert(text, dat, BufferPool.getPageSize(), 3,
+                new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE }, ',', HeapPageFormat.PAX);
+        schema.deleteOnExit();
+        text.deleteOnExit();
+        dat.deleteOnExit();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("paxtable"));
+        assertEquals(HeapPageFormat.PAX, hf.getPageFormat());
+
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals("row" + ((IntField) t.getField(0)).getValue(), ((StringField) t.getField(1)).getValue());
+            assertEquals(-((IntField) t.getField(0)).getValue(), ((IntField) t.getField(2)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(rows, count);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
@@ -0,0 +1,204 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class RecoveryTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile file;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        file = SystemTestUtil.createRandomHeapFile(2, 504 * 3, null, tuples);
+        Database.getBufferPool().setReadAheadPages(0);
+    }
+
+    /**
+     * Loses the buffer pool and reopens the log, as after a crash, and
+     * recovers.
+     */
+    private void crashAndRecover() throws Exception {
+        Database.reset();
+        file = new HeapFile(file.getFile(), file.getTupleDesc());
+        Database.getCatalog().addTable(file, UUID.randomUUID().toString());
+        Database.getLogFile().recover();
+    }
+
+    /**
+     * Deletes the first tuple of the specified page on behalf of tid.
+     *
+     * @return the deleted tuple, as a list
+     */
+    private ArrayList<Integer> deleteFirst(TransactionId tid, int pgNo) throws Exception {
+        HeapPageId pid = new HeapPageId(file.getId(), pgNo);
+        Tuple t = ((HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE))
+                .iterator().next();
+        Database.getBufferPool().deleteTuple(tid, t);
+        return SystemTestUtil.tupleToList(t);
+    }
+
+    /** Starts a transaction that deletes the first tuple of a page. */
+    private Transaction delete(int pgNo) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        tuples.remove(deleteFirst(t.getId(), pgNo));
+        return t;
+    }
+
+    /** Starts a transaction that deletes the first tuple of a page, which is not committed. */
+    private Transaction deleteUncommitted(int pgNo) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        deleteFirst(t.getId(), pgNo);
+        return t;
+    }
+
+    /**
+     * Commits whose pages never reached disk are redone.
+     */
+    @Test public void redoCommitted() throws Exception {
+        delete(0).commit();
+        delete(1).commit();
+        crashAndRecover();
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /**
+     * Pages a running transaction wrote to disk are undone, and the
+     * transaction is logged as aborted.
+     */
+    @Test public void undoLosers() throws Exception {
+        delete(0).commit();
+        Transaction loser = deleteUncommitted(1);
+        deleteFirst(loser.getId(), 2);
+        Database.getBufferPool().flushAllPages();
+        crashAndRecover();
+        SystemTestUtil.matchTuples(file, tuples);
+        assertFalse(Database.getLogFile().isLogged(loser.getId()));
+
+        // recovering again finds nothing left to undo
+        crashAndRecover();
+        assertEquals(0, Database.getLogFile().getTotalRecords());
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /**
+     * A transaction rolled back before the crash stays rolled back when
+     * history is repeated.
+     */
+    @Test public void abortedStaysAborted() throws Exception {
+        Transaction t = deleteUncommitted(0);
+        Database.getBufferPool().flushPages(t.getId());
+        t.abort();
+        delete(0).commit();
+        crashAndRecover();
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /**
+     * Recovery starts from the last checkpoint, and undoes losers that
+     * were active at its time.
+     */
+    @Test public void fromCheckpoint() throws Exception {
+        delete(0).commit();
+        deleteUncommitted(1);
+        Database.getLogFile().logCheckpoint();
+        delete(2).commit();
+        crashAndRecover();
+        // the checkpoint wrote the loser's page: one CLR, and its ABORT record
+        assertEquals(2, Database.getLogFile().getTotalRecords());
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /**
+     * A transaction whose first log record is an update, not a BEGIN
+     * record, can still be rolled back after the log was truncated.
+     */
+    @Test public void rollbackAfterTruncation() throws Exception {
+        delete(0).commit();
+        TransactionId tid = new TransactionId();
+        deleteFirst(tid, 1);
+        Database.getBufferPool().flushPages(tid);
+        Database.getLogFile().logCheckpoint();
+        Database.getBufferPool().transactionComplete(tid, false);
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /** @return the first tuple of the specified page, found without locking it */
+    private Tuple first(int pgNo) throws Exception {
+        DbFileIterator it = file.iterator(null);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getPageId().pageNumber() == pgNo) {
+                it.close();
+                return t;
+            }
+        }
+        it.close();
+        throw new AssertionError("page " + pgNo + " is empty");
+    }
+
+    /** Inserts the tuple (value, value) on behalf of tid. */
+    private ArrayList<Integer> insert(TransactionId tid, int value) throws Exception {
+        Tuple t = Utility.getHeapTuple(value, 2);
+        Database.getBufferPool().insertTuple(tid, file.getId(), t);
+        return SystemTestUtil.tupleToList(t);
+    }
+
+    /**
+     * In row-locking mode, the inserts of a transaction that did not
+     * commit are undone although a commit wrote them to disk with its
+     * own, its deletes are not applied, and committed changes survive.
+     */
+    @Test public void rowLockedChanges() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.setRowLocking(true);
+        Transaction aborted = new Transaction();
+        aborted.start();
+        insert(aborted.getId(), -3);
+        aborted.abort();
+
+        Transaction winner = new Transaction();
+        winner.start();
+        Transaction loser = new Transaction();
+        loser.start();
+        tuples.add(insert(winner.getId(), -1));
+        insert(loser.getId(), -2);
+        Tuple deleted = first(0);
+        bp.deleteTuple(winner.getId(), deleted);
+        tuples.remove(SystemTestUtil.tupleToList(deleted));
+        bp.deleteTuple(loser.getId(), first(1));
+        // writes the page both inserts are on
+        winner.commit();
+
+        crashAndRecover();
+        SystemTestUtil.matchTuples(file, tuples);
+        assertFalse(Database.getLogFile().isLogged(loser.getId()));
+        crashAndRecover();
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
@@ -0,0 +1,321 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RowLockingTest extends TestUtil.CreateHeapFile {
+    /** Time given to an update before it is considered blocked */
+    private static final int TIMEOUT = 200;
+
+    private PageId p2;
+    private TransactionId tid1, tid2;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+
+        // create a three page table whose last page holds tuple 1008 and has room
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 504 * 2 + 1; ++i) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+        bp.setRowLocking(true);
+
+        p2 = new HeapPageId(empty.getId(), 2);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    /** Runs an update in another thread. */
+    private FutureTask<Void> start(Callable<Void> update) {
+        FutureTask<Void> task = new FutureTask<Void>(update);
+        Thread t = new Thread(task);
+        t.setDaemon(true);
+        t.start();
+        return task;
+    }
+
+    /** Inserts the tuple (value, value) in another thread. */
+    private FutureTask<Void> startInsert(final TransactionId tid, final int value) {
+        return start(new Callable<Void>() {
+            public Void call() throws Exception {
+                bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(value, 2));
+                return null;
+            }
+        });
+    }
+
+    /** Checks that an update completes without waiting for a lock. */
+    private void assertDone(FutureTask<Void> task) throws Exception {
+        task.get(TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /** Checks that an update is blocked. */
+    private void assertBlocked(FutureTask<Void> task) throws Exception {
+        try {
+            task.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("expected the update to block");
+        } catch (TimeoutException e) {
+            // waiting for a lock
+        }
+    }
+
+    /** @return the tuples of the last page that tid sees, as their first field */
+    private List<Integer> lastPage(TransactionId tid) throws Exception {
+        List<Integer> values = new ArrayList<Integer>();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getRecordId().getPageId().equals(p2)) {
+                values.add(((IntField) t.getField(0)).getValue());
+            }
+        }
+        it.close();
+        return values;
+    }
+
+    private Tuple findTuple(TransactionId tid, int value) throws Exception {
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (((IntField) t.getField(0)).getValue() == value) {
+                it.close();
+                return t;
+            }
+        }
+        it.close();
+        throw new AssertionError("no tuple " + value);
+    }
+
+    /** Runs a Delete of the tuples whose first field is value, through a SeqScan, in another thread. */
+    private FutureTask<Void> startDelete(final TransactionId tid, final int value) {
+        return start(new Callable<Void>() {
+            public Void call() throws Exception {
+                Delete delete = new Delete(tid, new Matching(new SeqScan(tid, empty.getId()), value));
+                delete.open();
+                assertEquals(1, ((IntField) delete.next().getField(0)).getValue());
+                delete.close();
+                return null;
+            }
+        });
+    }
+
+    /** Passes on the tuples of its child whose first field is value. */
+    private static class Matching extends Operator {
+        private static final long serialVersionUID = 1L;
+        private DbIterator child;
+        private final int value;
+
+        Matching(DbIterator child, int value) {
+            this.child = child;
+            this.value = value;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            super.open();
+            child.open();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (((IntField) t.getField(0)).getValue() == value) {
+                    return t;
+                }
+            }
+            return null;
+        }
+
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { child };
+        }
+
+        public void setChildren(DbIterator[] children) {
+            child = children[0];
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+    }
+
+    /** Scans the table on behalf of tid up to the tuple whose first field is value. */
+    private void scanTo(TransactionId tid, int value) throws Exception {
+        SeqScan scan = new SeqScan(tid, empty.getId());
+        scan.open();
+        while (((IntField) scan.next().getField(0)).getValue() != value) {
+        }
+        scan.close();
+    }
+
+    /**
+     * Two transactions insert on the same page without waiting for each
+     * other, and both inserts are kept once they commit.
+     */
+    @Test public void concurrentInserts() throws Exception {
+        bp.insertTuple(tid1, empty.getId(), Utility.getHeapTuple(7, 2));
+        assertDone(startInsert(tid2, 8));
+        assertTrue(bp.holdsLock(tid1, p2));
+        assertTrue(bp.holdsLock(tid2, p2));
+
+        bp.transactionComplete(tid1);
+        bp.transactionComplete(tid2);
+        assertEquals(3, lastPage(new TransactionId()).size());
+    }
+
+    /**
+     * A transaction inserts on a page that another transaction deletes from,
+     * and the delete only takes effect when the deleting one commits.
+     */
+    @Test public void deleteAndInsertOnSamePage() throws Exception {
+        final Tuple t = findTuple(null, 1008);
+        bp.deleteTuple(tid1, t);
+        assertDone(startInsert(tid2, 7));
+        bp.transactionComplete(tid2);
+
+        assertFalse(lastPage(tid1).contains(1008));
+        assertTrue(lastPage(tid1).contains(7));
+        bp.transactionComplete(tid1);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(1, lastPage(new TransactionId()).size());
+        assertTrue(lastPage(new TransactionId()).contains(7));
+    }
+
+    /**
+     * Aborting a transaction undoes its inserts only, even on a page that
+     * another transaction has changed.
+     */
+    @Test public void abortUndoesOwnInserts() throws Exception {
+        bp.insertTuple(tid1, empty.getId(), Utility.getHeapTuple(7, 2));
+        assertDone(startInsert(tid2, 8));
+        bp.transactionComplete(tid1, false);
+        bp.transactionComplete(tid2);
+
+        List<Integer> expected = new ArrayList<Integer>();
+        expected.add(1008);
+        expected.add(8);
+        assertEquals(expected.size(), lastPage(new TransactionId()).size());
+        assertTrue(lastPage(new TransactionId()).containsAll(expected));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertTrue(lastPage(new TransactionId()).containsAll(expected));
+        assertFalse(lastPage(new TransactionId()).contains(7));
+    }
+
+    /**
+     * Deleting a tuple locks it, so a second transaction deleting it waits
+     * and then finds it gone.
+     */
+    @Test public void deletesOfSameTuple() throws Exception {
+        final Tuple t = findTuple(null, 1008);
+        bp.deleteTuple(tid1, t);
+        FutureTask<Void> second = start(new Callable<Void>() {
+            public Void call() throws Exception {
+                bp.deleteTuple(tid2, t);
+                return null;
+            }
+        });
+        assertBlocked(second);
+
+        bp.transactionComplete(tid1);
+        try {
+            second.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("expected DbException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DbException);
+        }
+    }
+
+    /**
+     * Deletes through scans of the same page, by transactions that have
+     * both read it, do not deadlock: scans only lock the tuples they read,
+     * so a delete waits for the other transaction only if that has read
+     * the tuple.
+     */
+    @Test public void deletesThroughScans() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(1009, 2));
+        bp.transactionComplete(tid);
+        scanTo(tid1, 1008);
+        scanTo(tid2, 1008);
+
+        FutureTask<Void> first = startDelete(tid1, 1008);
+        assertBlocked(first);
+        assertDone(startDelete(tid2, 1009));
+        bp.transactionComplete(tid2);
+        assertDone(first);
+        bp.transactionComplete(tid1);
+        assertEquals(0, lastPage(new TransactionId()).size());
+    }
+
+    /**
+     * An exclusive table lock keeps row writers out until it is released.
+     */
+    @Test public void tableLockBlocksRowWriters() throws Exception {
+        bp.lockTable(tid1, empty.getId(), Permissions.READ_WRITE);
+        FutureTask<Void> insert = startInsert(tid2, 7);
+        assertBlocked(insert);
+        bp.transactionComplete(tid1);
+        assertDone(insert);
+        bp.transactionComplete(tid2);
+        assertTrue(lastPage(new TransactionId()).contains(7));
+    }
+
+    /**
+     * Row changes and page images are logged differently, so row locking
+     * cannot be switched while the log holds running transactions.
+     */
+    @Test public void refusedWhileLogged() throws Exception {
+        bp.setRowLocking(false);
+        Transaction t = new Transaction();
+        t.start();
+        try {
+            bp.setRowLocking(true);
+            fail("expected row locking to be refused");
+        } catch (IllegalStateException e) {
+            // the log is in use
+        }
+        assertFalse(bp.isRowLocking());
+        t.commit();
+        bp.setRowLocking(true);
+        assertTrue(bp.isRowLocking());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RowLockingTest.class);
+    }
+}
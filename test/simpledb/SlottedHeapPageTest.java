@@ -0,0 +1,207 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws IOException {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int key, String value) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(key));
+        t.setField(1, new StringField(value, Type.STRING_LEN, Type.VARCHAR_TYPE));
+        return t;
+    }
+
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Tuples survive a round trip through getPageData and keep their slots.
+     */
+    @Test public void insertAndReload() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++) {
+            Tuple t = tuple(i, repeat('a', i));
+            page.insertTuple(t);
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+
+        SlottedHeapPage reloaded = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = reloaded.iterator();
+        for (int i = 0; i < 10; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(repeat('a', i), ((StringField) t.getField(1)).getValue());
+            assertEquals(Type.VARCHAR_TYPE, t.getField(1).getType());
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Short strings take only their own length, so many more tuples fit
+     * than in a HeapPage of the same width.
+     */
+    @Test public void shortStringsArePacked() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int count = 0;
+        while (page.hasRoomFor(tuple(count, "abcd"))) {
+            page.insertTuple(tuple(count++, "abcd"));
+        }
+        // 4 bytes of slot directory plus 12 bytes of record per tuple
+        assertEquals((BufferPool.getPageSize() - SlottedHeapPage.HEADER_SIZE) / 16, count);
+        assertEquals(0, page.getNumEmptySlots());
+    }
+
+    /**
+     * Freed slots are reused and fragmented free space is compacted.
+     */
+    @Test public void deleteReusesSlotsAndSpace() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        String big = repeat('x', Type.STRING_LEN);
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        while (page.hasRoomFor(tuple(0, big))) {
+            Tuple t = tuple(inserted.size(), big);
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        assertFalse(page.hasRoomFor(tuple(0, big)));
+
+        // the freed records are not next to the free space, so reusing
+        // their space requires the page to be compacted
+        page.deleteTuple(inserted.get(1));
+        page.deleteTuple(inserted.get(3));
+        assertFalse(page.isSlotUsed(1));
+        Tuple a = tuple(100, big);
+        Tuple b = tuple(101, repeat('y', Type.STRING_LEN));
+        page.insertTuple(a);
+        page.insertTuple(b);
+        assertEquals(1, a.getRecordId().tupleno());
+        assertEquals(3, b.getRecordId().tupleno());
+
+        int seen = 0;
+        Iterator<Tuple> it = new SlottedHeapPage(pid, page.getPageData()).iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            String expected = key == 101 ? repeat('y', Type.STRING_LEN) : big;
+            assertEquals(expected, ((StringField) t.getField(1)).getValue());
+            seen++;
+        }
+        assertEquals(inserted.size(), seen);
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.deleteTuple() with false tuples
+     */
+    @Test(expected=DbException.class)
+    public void deleteNonexistentTuple() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        Tuple t = tuple(1, "a");
+        page.insertTuple(t);
+        page.deleteTuple(t);
+        page.deleteTuple(t);
+    }
+
+    /**
+     * HeapFileEncoder writes slotted pages for VARCHAR tables and HeapFile
+     * reads them back.
+     */
+    @Test public void encodeAndScan() throws Exception {
+        File text = File.createTempFile("varchar", ".txt");
+        text.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        int rows = 2000;
+        for (int i = 0; i < rows; i++) {
+            bw.write(i + ",name" + i + "\n");
+        }
+        bw.close();
+        File dat = File.createTempFile("varchar", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convert(text, dat, BufferPool.getPageSize(), 2, new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE });
+
+        HeapFile hf = new HeapFile(dat, td);
+        assertEquals(HeapPageFormat.SLOTTED, hf.getPageFormat());
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        // a STRING column would need 67 pages for the same rows
+        assertTrue(hf.numPages() <= 12);
+
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals("name" + ((IntField) t.getField(0)).getValue(), ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(rows, count);
+    }
+
+    /**
+     * Converting a VARCHAR table to row pages stores the VARCHARs in the
+     * fixed-width layout of strings.
+     */
+    @Test public void encodeRowPages() throws Exception {
+        File text = File.createTempFile("varchar", ".txt");
+        text.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(text));
+        bw.write("1,hello\n2,world\n");
+        bw.close();
+        File dat = File.createTempFile("varchar", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convert(text, dat, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE }, ',', HeapPageFormat.ROW);
+
+        HeapFile hf = new HeapFile(dat, td, HeapPageFormat.ROW);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(1, hf.numPages());
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        assertEquals("hello", ((StringField) it.next().getField(1)).getValue());
+        assertEquals("world", ((StringField) it.next().getField(1)).getValue());
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
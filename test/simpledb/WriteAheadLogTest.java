@@ -0,0 +1,217 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class WriteAheadLogTest extends SimpleDbTestBase {
+
+    private static final int FILE_PAGES = 4;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile file;
+    private BufferPool pool;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        file = SystemTestUtil.createRandomHeapFile(2, 504 * FILE_PAGES, null, tuples);
+        pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        pool.setReadAheadPages(0);
+    }
+
+    /** @return the number of empty slots of the page as stored on disk */
+    private int emptySlotsOnDisk(int pgNo) {
+        return ((HeapPage) file.readPage(new HeapPageId(file.getId(), pgNo))).getNumEmptySlots();
+    }
+
+    /** Deletes the first tuple of the first page on behalf of tid. */
+    private void deleteFirst(TransactionId tid) throws Exception {
+        HeapPageId pid = new HeapPageId(file.getId(), 0);
+        Tuple t = ((HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE)).iterator().next();
+        pool.deleteTuple(tid, t);
+    }
+
+    /**
+     * A commit forces the log, with the after images of the pages, but not
+     * the pages themselves (NO-FORCE).
+     */
+    @Test public void commitForcesOnlyTheLog() throws Exception {
+        int before = emptySlotsOnDisk(0);
+        Transaction t = new Transaction();
+        t.start();
+        deleteFirst(t.getId());
+        int records = Database.getLogFile().getTotalRecords();
+        t.commit();
+
+        assertFalse(Database.getLogFile().isLogged(t.getId()));
+        // an update record and the commit record
+        assertEquals(records + 2, Database.getLogFile().getTotalRecords());
+        assertEquals(1, pool.getDirtyPageCount());
+        assertEquals(before, emptySlotsOnDisk(0));
+
+        pool.flushAllPages();
+        assertEquals(before + 1, emptySlotsOnDisk(0));
+    }
+
+    /**
+     * Pages written before their transaction aborts (STEAL) are rolled
+     * back from the before images in the log.
+     */
+    @Test public void abortRollsBackStolenPages() throws Exception {
+        int before = emptySlotsOnDisk(0);
+        Transaction t = new Transaction();
+        t.start();
+        deleteFirst(t.getId());
+        pool.flushPages(t.getId());
+        assertEquals(before + 1, emptySlotsOnDisk(0));
+
+        t.abort();
+        assertFalse(Database.getLogFile().isLogged(t.getId()));
+        assertEquals(before, emptySlotsOnDisk(0));
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /**
+     * An abort undoes only its own changes to a page that holds committed
+     * changes that are not on disk yet.
+     */
+    @Test public void abortKeepsUnforcedCommits() throws Exception {
+        int before = emptySlotsOnDisk(0);
+        Transaction t1 = new Transaction();
+        t1.start();
+        HeapPageId pid = new HeapPageId(file.getId(), 0);
+        Tuple deleted = ((HeapPage) pool.getPage(t1.getId(), pid, Permissions.READ_WRITE)).iterator().next();
+        deleteFirst(t1.getId());
+        t1.commit();
+        assertEquals(before, emptySlotsOnDisk(0));
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        deleteFirst(t2.getId());
+        t2.abort();
+
+        TransactionId tid = new TransactionId();
+        assertEquals(before + 1, ((HeapPage) pool.getPage(tid, pid, Permissions.READ_ONLY)).getNumEmptySlots());
+        pool.transactionComplete(tid);
+        pool.flushAllPages();
+        assertEquals(before + 1, emptySlotsOnDisk(0));
+        tuples.remove(SystemTestUtil.tupleToList(deleted));
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /**
+     * Pages appended by a bulk insert are emptied again if the
+     * transaction aborts.
+     */
+    @Test public void abortEmptiesAppendedPages() throws Exception {
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 3; i++) {
+            batch.add(Utility.getHeapTuple(i, 2));
+        }
+        Transaction t = new Transaction();
+        t.start();
+        pool.insertTuples(t.getId(), file.getId(), batch.iterator());
+        assertTrue(file.numPages() > FILE_PAGES);
+
+        t.abort();
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /**
+     * Pages appended by a bulk insert are locked by its transaction, so
+     * that others cannot put rows on them that its abort would remove.
+     */
+    @Test public void appendedPagesAreLocked() throws Exception {
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 2 + 10; i++) {
+            batch.add(Utility.getHeapTuple(i, 2));
+        }
+        Transaction t = new Transaction();
+        t.start();
+        pool.insertTuples(t.getId(), file.getId(), batch.iterator());
+        HeapPageId last = new HeapPageId(file.getId(), file.numPages() - 1);
+        assertTrue(last.pageNumber() >= FILE_PAGES);
+        assertTrue(pool.holdsLock(t.getId(), last));
+
+        TransactionId otherTid = new TransactionId();
+        TestUtil.LockGrabber other = new TestUtil.LockGrabber(otherTid, last, Permissions.READ_WRITE);
+        other.setDaemon(true);
+        other.start();
+        Thread.sleep(200);
+        assertFalse(other.acquired());
+
+        t.abort();
+        other.join(2000);
+        assertTrue(other.acquired());
+        pool.transactionComplete(otherTid);
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /**
+     * An aborted bulk insert leaves none of its rows behind, neither on
+     * the pages it topped up nor on those it appended, in the pool or on
+     * disk.
+     */
+    @Test public void abortedBulkInsertLeavesNoRows() throws Exception {
+        Transaction d = new Transaction();
+        d.start();
+        HeapPageId first = new HeapPageId(file.getId(), 0);
+        Tuple gone = ((HeapPage) pool.getPage(d.getId(), first, Permissions.READ_ONLY)).iterator().next();
+        pool.deleteTuple(d.getId(), gone);
+        tuples.remove(SystemTestUtil.tupleToList(gone));
+        d.commit();
+
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 2 + 10; i++) {
+            batch.add(Utility.getHeapTuple(-i, 2));
+        }
+        Transaction t = new Transaction();
+        t.start();
+        pool.insertTuples(t.getId(), file.getId(), batch.iterator());
+        assertTrue(file.numPages() > FILE_PAGES);
+        t.abort();
+
+        SystemTestUtil.matchTuples(file, tuples);
+        pool.flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(file, tuples);
+    }
+
+    /**
+     * Checkpoints, which read back the log records they keep, handle the
+     * pages of B+ tree files.
+     */
+    @Test public void checkpointWithBTreePages() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        BTreeFile btree = BTreeUtility.createRandomBTreeFile(2, 100, null, rows, 0);
+        Transaction t = new Transaction();
+        t.start();
+        pool.insertTuple(t.getId(), btree.getId(), BTreeUtility.getBTreeTuple(new int[] {7, 7}));
+        pool.flushAllPages();
+        Database.getLogFile().logCheckpoint();
+        assertTrue(Database.getLogFile().isLogged(t.getId()));
+
+        t.abort();
+        SystemTestUtil.matchTuples(btree, rows);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WriteAheadLogTest.class);
+    }
+}
@@ -104,6 +104,23 @@ public class ScanTest extends SimpleDbTestBase {
         assertEquals(0, table.readCount);
     }
 
+    /** Verifies that a sequential scan reads ahead through the buffer pool.
+     * @throws TransactionAbortedException
+     * @throws DbException */
+    @Test public void testReadAhead() throws IOException, DbException, TransactionAbortedException {
+        final int PAGES = 30;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(1, 992*PAGES, 1000, null, tuples);
+        BufferPool pool = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        pool.setReadAheadPages(4);
+
+        SystemTestUtil.matchTuples(table, tuples);
+
+        // only the first page is read synchronously
+        assertEquals(1, pool.getPrefetchMisses());
+        assertEquals(PAGES - 1, pool.getPrefetchHits() + pool.getPrefetchWaits());
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);